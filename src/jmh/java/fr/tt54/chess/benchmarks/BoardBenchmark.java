@@ -0,0 +1,121 @@
+package fr.tt54.chess.benchmarks;
+
+import fr.tt54.chess.game.AbstractChessBoard;
+import fr.tt54.chess.game.ChessBoard;
+import fr.tt54.chess.game.ChessMove;
+import fr.tt54.chess.game.IntegerChessBoard;
+import fr.tt54.chess.game.QuickChessBoard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move generation, make/unmake, FEN loading and fixed depth perft of the three boards on each perft position.
+ * The {@link IntegerChessBoard} is benchmarked through its allocation free int moves, the two other boards through
+ * the {@link AbstractChessBoard} methods
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"ChessBoard", "QuickChessBoard", "IntegerChessBoard"})
+    public String boardType;
+
+    /**
+     * Index in {@link AbstractChessBoard#perftFens}
+     */
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    private String fen;
+    private AbstractChessBoard board;
+    private IntegerChessBoard integerBoard;
+
+    private List<ChessMove> moves;
+    private int[] integerMoves;
+    private int integerMovesCount;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        fen = AbstractChessBoard.perftFens[position];
+        switch (boardType) {
+            case "ChessBoard" -> board = new ChessBoard(fen);
+            case "QuickChessBoard" -> board = new QuickChessBoard(fen);
+            case "IntegerChessBoard" -> integerBoard = new IntegerChessBoard(fen);
+            default -> throw new IllegalArgumentException("Unknown board type " + boardType);
+        }
+
+        if (integerBoard != null) {
+            integerMoves = new int[IntegerChessBoard.MAX_MOVES];
+            integerMovesCount = integerBoard.fillAllowedMoves(integerMoves);
+        } else {
+            moves = board.getAllowedMoves();
+        }
+    }
+
+    @Benchmark
+    public void getAllowedMoves(Blackhole blackhole){
+        if (integerBoard != null) {
+            blackhole.consume(integerBoard.fillAllowedMoves(integerMoves));
+        } else {
+            blackhole.consume(board.getAllowedMoves());
+        }
+    }
+
+    /**
+     * Plays and undoes each legal move of the position once, so an operation is one make/unmake pair per legal move
+     */
+    @Benchmark
+    public void playUndoMoves(Blackhole blackhole){
+        if (integerBoard != null) {
+            for (int i = 0; i < integerMovesCount; i++) {
+                integerBoard.playMove(integerMoves[i]);
+                integerBoard.undoMove(integerMoves[i]);
+            }
+            blackhole.consume(integerBoard.getHash());
+        } else {
+            for (ChessMove move : moves) {
+                board.playMove(move);
+                board.undoMove(move);
+            }
+            blackhole.consume(board.isWhiteToPlay());
+        }
+    }
+
+    @Benchmark
+    public void loadFen(Blackhole blackhole){
+        if (integerBoard != null) {
+            integerBoard.loadFen(fen);
+            blackhole.consume(integerBoard.getHash());
+        } else {
+            board.loadFen(fen);
+            blackhole.consume(board.getEnPassant());
+        }
+    }
+
+    /**
+     * Perft at depth 3, so the slowest board stays in the millisecond range on every position
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long perft(){
+        return integerBoard != null ? integerBoard.perft(3, -1) : board.perft(3, -1);
+    }
+}
@@ -0,0 +1,48 @@
+package fr.tt54.chess.benchmarks;
+
+import fr.tt54.chess.bots.AlphaBetaBot;
+import fr.tt54.chess.game.IntegerChessBoard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static evaluation of the perft positions, the only board the bots search being {@link IntegerChessBoard}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    /**
+     * Index in {@link IntegerChessBoard#perftFens}
+     */
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    private IntegerChessBoard board;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        board = new IntegerChessBoard(IntegerChessBoard.perftFens[position]);
+    }
+
+    @Benchmark
+    public int evaluatePosition(){
+        return AlphaBetaBot.evaluatePosition(board);
+    }
+}
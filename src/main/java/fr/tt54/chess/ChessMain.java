@@ -1,14 +1,22 @@
 package fr.tt54.chess;
 
 import fr.tt54.chess.bots.AlphaBetaBot;
+import fr.tt54.chess.bots.MatchRunner;
+import fr.tt54.chess.bots.PawnHashTable;
 import fr.tt54.chess.bots.MinMaxBot;
 import fr.tt54.chess.game.AbstractChessBoard;
 import fr.tt54.chess.game.ChessBoard;
 import fr.tt54.chess.game.IntegerChessBoard;
+import fr.tt54.chess.game.PerftSuiteRunner;
 import fr.tt54.chess.game.QuickChessBoard;
+import fr.tt54.chess.nnue.NeuralNetwork;
+import fr.tt54.chess.uci.UciEngine;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.List;
 import java.util.Locale;
 
 public class ChessMain {
@@ -16,7 +24,84 @@ public class ChessMain {
     public static final DecimalFormat longFormat = new DecimalFormat("#,###", new DecimalFormatSymbols(Locale.ENGLISH));
     public static FrameManager manager;
 
-    public static void main(String[] args) {
+    public static final int defaultBenchDepth = 6;
+    private static final int comparedEvaluationCacheSizeMb = 16; // The cache of the second bench run, when the first one has none
+    /**
+     * Positions of the bench, from the opening to the endgame. Changing them changes the bench signature
+     */
+    public static final String[] benchFens = new String[]{
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 10",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 11",
+            "4rrk1/pp1n3p/3q2pQ/2p1pb2/2PP4/2P3N1/P2B2PP/4RRK1 b - - 7 19",
+            "rq3rk1/ppp2ppp/1bnpb3/3N2B1/3NP3/7P/PPPQ1PP1/2KR3R w - - 7 14",
+            "r1bq1r1k/1pp1n1pp/1p1p4/4p2Q/4Pp2/1BNP4/PPP2PPP/3R1RK1 w - - 2 14",
+            "r3r1k1/2p2ppp/p1p1bn2/8/1q2P3/2NPQN2/PPP3PP/R4RK1 b - - 2 15",
+            "r1bbk1nr/pp3p1p/2n5/1N4p1/2Np1B2/8/PPP2PPP/2KR1B1R w kq - 0 13",
+            "r1bq1rk1/ppp1nppp/4n3/3p3Q/3P4/1BP1B3/PP1N2PP/R4RK1 w - - 1 16",
+            "4r1k1/r1q2ppp/ppp2n2/4P3/5Rb1/1N1BQ3/PPP3PP/R5K1 w - - 1 17",
+            "2rqkb1r/ppp2p2/2npb1p1/1N1Nn2p/2P1PP2/8/PP2B1PP/R1BQK2R b KQ - 0 11",
+            "r1bq1r1k/b1p1npp1/p2p3p/1p6/3PP3/1B2NN2/PP3PPP/R2Q1RK1 w - - 1 16",
+            "3r1rk1/p5pp/bpp1pp2/8/q1PP1P2/b3P3/P2NQRPP/1R2B1K1 b - - 6 22",
+            "r1q2rk1/2p1bppp/2Pp4/p6b/Q1PNp3/4B3/PP1R1PPP/2K4R w - - 2 18",
+            "4k2r/1pb2ppp/1p2p3/1R1p4/3P4/2r1PN2/P4PPP/1R4K1 b - - 3 22",
+            "3q2k1/pb3p1p/4pbp1/2r5/PpN2N2/1P2P2P/5PP1/Q2R2K1 b - - 4 26",
+            "6k1/6p1/6Pp/ppp5/3pn2P/1P3K2/1PP2P2/8 b - - 3 54",
+            "3b4/5kp1/1p1p1p1p/pP1PpP1P/P1P1P3/3KN3/8/8 w - - 0 1",
+            "2K5/p7/7P/5pR1/8/5k2/r7/8 w - - 0 1",
+            "8/6pk/1p6/8/PP3p1p/5P2/4KP1q/3Q4 w - - 0 1",
+            "7k/3p2pp/4q3/8/4Q3/5Kp1/P6b/8 w - - 0 1",
+            "8/2p5/8/2kPKp1p/2p4P/2P5/3P4/8 w - - 0 1",
+            "8/1p3pp1/7p/5P1P/2k3P1/8/2K2P2/8 w - - 0 1",
+            "8/pp2r1k1/2p1p3/3pP2p/1P1P1P1P/P5KR/8/8 w - - 0 1",
+            "8/3p4/p1bk3p/Pp6/1Kp1PpPp/2P2P1P/2P5/5B2 b - - 0 1",
+            "5k2/7R/4P2p/5K2/p1r2P1p/8/8/8 b - - 0 1",
+            "6k1/6p1/P6p/r1N5/5p2/7P/1b3PP1/4R1K1 w - - 0 1",
+            "1r3k2/4q3/2Pp3b/3Bp3/2Q2p2/1p1P2P1/1P2KP2/3N4 w - - 0 1",
+            "6k1/4pp1p/3p2p1/P1pPb3/R7/1r2P1PP/3B1P2/6K1 w - - 0 1",
+            "8/3p3B/5p2/5P2/p7/PP5b/k7/6K1 w - - 0 1",
+            "5rk1/q6p/2p3bR/1pPp1rP1/1P1Pp3/P3B1Q1/1K3P2/R7 w - - 93 90",
+            "4rrk1/1p1nq3/p7/2p1P1pp/3P2bp/3Q1Bn1/PPPB4/1K2R1NR w - - 40 21",
+            "r3k2r/3nnpbp/q2pp1p1/p7/Pp1PPPP1/4BNN1/1P5P/R2Q1RK1 w kq - 0 16",
+            "3Qb1k1/1r2ppb1/pN1n2q1/Pp1Pp1Pr/4P2p/4BP2/4B1R1/1R5K b - - 11 40",
+            "4k3/3q1r2/1N2r1b1/3ppN2/2nPP3/1B1R2n1/2R1Q3/3K4 w - - 5 1",
+            "8/8/8/8/5kp1/P7/8/1K1N4 w - - 0 1",
+            "8/8/8/5N2/8/p7/8/2NK3k w - - 0 1",
+            "8/3k4/8/8/8/4B3/4KB2/2B5 w - - 0 1",
+            "8/8/1P6/5pr1/8/4R3/7k/2K5 w - - 0 1",
+            "8/2p4P/8/kr6/6R1/8/8/1K6 w - - 0 1"
+    };
+
+    /**
+     * Without argument, opens the game window. "bench [depth] [evalCacheMb]" runs the bench, "uci" starts the UCI engine,
+     * "match [games] [concurrency]" runs the example match, "perft-suite file [maxDepth] [threads]" checks the move
+     * generation against an EPD perft suite, see {@link PerftSuiteRunner}, and "compare-network file [games] [concurrency]"
+     * compares a neural network to the handcrafted evaluation, all of them without opening any window. The networks are trained by
+     * the trainNetwork task, see {@code NeuralNetworkTrainer} in src/tools
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length > 0 && args[0].equals("bench")){
+            bench(args.length > 1 ? Integer.parseInt(args[1]) : defaultBenchDepth, args.length > 2 ? Integer.parseInt(args[2]) : 0);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("uci")){
+            new UciEngine(System.in, System.out).run();
+            return;
+        }
+        if(args.length > 0 && args[0].equals("match")){
+            compareTranspositionTableInGames(args.length > 1 ? Integer.parseInt(args[1]) : 200, args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+            return;
+        }
+        if(args.length > 1 && args[0].equals("perft-suite")){
+            new PerftSuiteRunner(args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors(),
+                    args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE).run(Path.of(args[1]));
+            return;
+        }
+        if(args.length > 1 && args[0].equals("compare-network")){
+            compareNeuralNetwork(NeuralNetwork.load(Path.of(args[1])), args.length > 2 ? Integer.parseInt(args[2]) : 200, args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+            return;
+        }
+
         manager = new FrameManager();
         manager.setBot(new AlphaBetaBot(false, 4));
 
@@ -42,4 +127,235 @@ public class ChessMain {
         IntegerChessBoard b = new IntegerChessBoard();
         b.launchPerftChecks();
     }
-}
\ No newline at end of file
+
+    /**
+     * Searches each perft position at a fixed depth with and without transposition table, and prints the visited nodes and the table hit rate
+     */
+    public static void compareTranspositionTable(int depth){
+        for(int i = 0; i < IntegerChessBoard.perftFens.length; i++){
+            IntegerChessBoard board = new IntegerChessBoard(IntegerChessBoard.perftFens[i]);
+
+            AlphaBetaBot withoutTable = new AlphaBetaBot(board.isWhiteToPlay(), depth, 0);
+            long time = System.currentTimeMillis();
+            withoutTable.getBestMove(board);
+            long timeWithout = System.currentTimeMillis() - time;
+
+            AlphaBetaBot withTable = new AlphaBetaBot(board.isWhiteToPlay(), depth, 64);
+            time = System.currentTimeMillis();
+            withTable.getBestMove(board);
+            long timeWith = System.currentTimeMillis() - time;
+
+            long nodesWithout = withoutTable.getVisitedNodes();
+            long nodesWith = withTable.getVisitedNodes();
+            System.out.println("Position " + (i+1) + " at depth " + depth + " : " + longFormat.format(nodesWithout) + " nodes in " + timeWithout + "ms without table, "
+                    + longFormat.format(nodesWith) + " nodes in " + timeWith + "ms with table (" + Math.round(100 - 100.0 * nodesWith / nodesWithout) + "% less nodes, "
+                    + Math.round(withTable.getTranspositionHitRate() * 100) + "% hit rate)");
+        }
+    }
+
+    /**
+     * Searches each perft position at a fixed depth and prints the search statistics
+     */
+    public static void evaluateSearch(int depth){
+        for(int i = 0; i < IntegerChessBoard.perftFens.length; i++){
+            IntegerChessBoard board = new IntegerChessBoard(IntegerChessBoard.perftFens[i]);
+            AlphaBetaBot bot = new AlphaBetaBot(board.isWhiteToPlay(), depth, 64);
+
+            long time = System.currentTimeMillis();
+            bot.getBestMove(board);
+            time = System.currentTimeMillis() - time;
+
+            System.out.println("Position " + (i+1) + " at depth " + depth + " : " + longFormat.format(bot.getVisitedNodes()) + " nodes in " + time + "ms, "
+                    + Math.round(bot.getTranspositionHitRate() * 100) + "% table hit rate, "
+                    + Math.round(bot.getFirstMoveCutoffRate() * 100) + "% cutoffs on the first move, "
+                    + Math.round(bot.getQuiescenceNodesRate() * 100) + "% quiescence nodes, "
+                    + Math.round(bot.getPawnHashHitRate() * 1000) / 10.0 + "% pawn table hit rate");
+        }
+    }
+
+    /**
+     * Searches all the perft positions at a fixed depth with 1, 2, 4, 8 and 16 threads, and prints the time to reach the depth and the nodes per second
+     */
+    public static void evaluateThreads(int depth){
+        long singleThreadTime = 0;
+        for(String fen : IntegerChessBoard.perftFens){
+            // Warm up, so the first measure is not slowed down by the compilation
+            IntegerChessBoard board = new IntegerChessBoard(fen);
+            new AlphaBetaBot(board.isWhiteToPlay(), depth, 64).getBestMove(board);
+        }
+
+        for(int threads = 1; threads <= 16; threads *= 2){
+            long time = 0;
+            long nodes = 0;
+            for(String fen : IntegerChessBoard.perftFens){
+                IntegerChessBoard board = new IntegerChessBoard(fen);
+                try(AlphaBetaBot bot = new AlphaBetaBot(board.isWhiteToPlay(), depth, 64)){
+                    bot.setThreads(threads);
+
+                    long start = System.nanoTime();
+                    bot.getBestMove(board);
+                    time += System.nanoTime() - start;
+                    nodes += bot.getVisitedNodes();
+                }
+            }
+
+            if(threads == 1){
+                singleThreadTime = time;
+            }
+            System.out.println(threads + " threads at depth " + depth + " : " + (time / 1000000) + "ms to depth (x" + Math.round(100.0 * singleThreadTime / time) / 100.0 + "), "
+                    + longFormat.format(nodes * 1000000000L / Math.max(1, time)) + " nodes/s");
+        }
+    }
+
+    /**
+     * Searches each bench position at a fixed depth with one thread and an empty transposition table, then prints the
+     * total node count and the nodes per second. The node count only depends on the search, so it is the signature of
+     * the search behavior : a change of it means that a change modified the searched tree.
+     * <br>
+     * Without evaluation cache, each position is also searched with a cache of {@value #comparedEvaluationCacheSizeMb}MB,
+     * so the time it saves or costs is measured. The two searches alternate which one comes first, so the warm up of
+     * the JVM does not favor one of them
+     * @param evaluationCacheSizeMb The size of the evaluation cache, 0 to search without cache
+     * @return The total node count
+     */
+    public static long bench(int depth, int evaluationCacheSizeMb){
+        boolean compareCache = evaluationCacheSizeMb == 0;
+        BenchResult result = new BenchResult(0, 0, 0, 0);
+        BenchResult cachedResult = new BenchResult(0, 0, 0, 0);
+        for(int i = 0; i < benchFens.length; i++){
+            if(compareCache && i % 2 == 1){
+                cachedResult = cachedResult.add(searchBenchPosition(benchFens[i], depth, comparedEvaluationCacheSizeMb));
+            }
+            BenchResult position = searchBenchPosition(benchFens[i], depth, evaluationCacheSizeMb);
+            result = result.add(position);
+            if(compareCache && i % 2 == 0){
+                cachedResult = cachedResult.add(searchBenchPosition(benchFens[i], depth, comparedEvaluationCacheSizeMb));
+            }
+
+            System.out.println("Position " + (i+1) + "/" + benchFens.length + " : " + longFormat.format(position.nodes()) + " nodes");
+        }
+
+        // Each cache hit saves one full evaluation, whose average time is measured on the bench positions
+        long evaluationTime = measureEvaluationTime();
+
+        System.out.println("===========================");
+        System.out.println("Total time (ms) : " + longFormat.format(result.time() / 1000000));
+        System.out.println("Nodes searched  : " + result.nodes());
+        System.out.println("Nodes/second    : " + longFormat.format(result.nodes() * 1000000000L / Math.max(1, result.time())));
+        if(!compareCache){
+            System.out.println("Eval cache      : " + formatEvaluationCache(result, evaluationTime));
+        } else {
+            System.out.println("Eval cache      : disabled (" + evaluationTime + "ns per evaluation)");
+            System.out.println("With " + comparedEvaluationCacheSizeMb + "MB cache : " + longFormat.format(cachedResult.time() / 1000000) + "ms ("
+                    + (cachedResult.time() > result.time() ? "+" : "") + Math.round(1000.0 * (cachedResult.time() - result.time()) / Math.max(1, result.time())) / 10.0
+                    + "% time), " + formatEvaluationCache(cachedResult, evaluationTime));
+        }
+        return result.nodes();
+    }
+
+    private static BenchResult searchBenchPosition(String fen, int depth, int evaluationCacheSizeMb){
+        IntegerChessBoard board = new IntegerChessBoard(fen);
+        AlphaBetaBot bot = new AlphaBetaBot(board.isWhiteToPlay(), depth);
+        bot.setEvaluationCacheSize(evaluationCacheSizeMb);
+
+        long start = System.nanoTime();
+        bot.getBestMove(board);
+        long time = System.nanoTime() - start;
+        return new BenchResult(bot.getVisitedNodes(), time, bot.getEvaluationCacheProbes(), bot.getEvaluationCacheHits());
+    }
+
+    private static String formatEvaluationCache(BenchResult result, long evaluationTime){
+        long savedTime = result.evaluationCacheHits() * evaluationTime;
+        return Math.round(1000.0 * result.evaluationCacheHits() / Math.max(1, result.evaluationCacheProbes())) / 10.0 + "% hit rate, "
+                + longFormat.format(savedTime / 1000000) + "ms of evaluation saved (" + evaluationTime + "ns per evaluation)";
+    }
+
+    private record BenchResult(long nodes, long time, long evaluationCacheProbes, long evaluationCacheHits) {
+
+        private BenchResult add(BenchResult other){
+            return new BenchResult(nodes + other.nodes, time + other.time, evaluationCacheProbes + other.evaluationCacheProbes,
+                    evaluationCacheHits + other.evaluationCacheHits);
+        }
+    }
+
+    /**
+     * @return The average time of a full evaluation of the bench positions, in nanoseconds
+     */
+    private static long measureEvaluationTime(){
+        IntegerChessBoard[] boards = new IntegerChessBoard[benchFens.length];
+        for(int i = 0; i < benchFens.length; i++){
+            boards[i] = new IntegerChessBoard(benchFens[i]);
+        }
+
+        // The pawn structures are cached as in the search, where most of them are found in the pawn table
+        PawnHashTable pawnTable = new PawnHashTable(1);
+        int iterations = 200000;
+        long checksum = 0;
+        long start = 0;
+        for(int i = 0; i < 2 * iterations; i++){
+            if(i == iterations){
+                start = System.nanoTime(); // The first half warms up the evaluation
+            }
+            checksum += AlphaBetaBot.evaluatePosition(boards[i % boards.length], pawnTable);
+        }
+        long time = System.nanoTime() - start;
+        return checksum == Long.MIN_VALUE ? 0 : time / iterations;
+    }
+
+    /**
+     * Plays a match from the bench positions between the alpha-beta bot with and without transposition table, each move
+     * being searched for 50ms, and prints the Elo difference given by the table
+     */
+    public static void compareTranspositionTableInGames(int games, int concurrency){
+        MatchRunner match = new MatchRunner(() -> createTimedBot(16), () -> createTimedBot(0), List.of(benchFens), concurrency, 0, 20);
+        match.run(games);
+    }
+
+    private static AlphaBetaBot createTimedBot(int hashSizeMb){
+        AlphaBetaBot bot = new AlphaBetaBot(true, Integer.MAX_VALUE, hashSizeMb);
+        bot.setMoveTime(50);
+        return bot;
+    }
+
+    /**
+     * Prints the nodes per second of the bench with the handcrafted evaluation and with the network, with the scalar loops
+     * and with the vector API if the JVM has it, then plays a match from the bench positions between the network and the
+     * handcrafted evaluation, each move being searched for 50ms
+     */
+    public static void compareNeuralNetwork(NeuralNetwork network, int games, int concurrency){
+        boolean vectorApiAvailable = NeuralNetwork.isVectorApiAvailable();
+        printBenchSpeed("Handcrafted evaluation", null);
+        NeuralNetwork.setVectorApiEnabled(false);
+        printBenchSpeed("Network, scalar loops", network);
+        if(vectorApiAvailable){
+            NeuralNetwork.setVectorApiEnabled(true);
+            printBenchSpeed("Network, vector API", network);
+        } else {
+            System.out.println("Network, vector API : unavailable, start the JVM with --add-modules jdk.incubator.vector");
+        }
+
+        MatchRunner match = new MatchRunner(() -> {
+            AlphaBetaBot bot = createTimedBot(16);
+            bot.setNeuralNetwork(network);
+            return bot;
+        }, () -> createTimedBot(16), List.of(benchFens), concurrency, 0, 20);
+        match.run(games);
+    }
+
+    private static void printBenchSpeed(String description, NeuralNetwork network){
+        long nodes = 0;
+        long time = 0;
+        for(int i = 0; i < benchFens.length; i++){
+            IntegerChessBoard board = new IntegerChessBoard(benchFens[i]);
+            AlphaBetaBot bot = new AlphaBetaBot(board.isWhiteToPlay(), defaultBenchDepth - 1);
+            bot.setNeuralNetwork(network);
+
+            long start = System.nanoTime();
+            bot.getBestMove(board);
+            time += System.nanoTime() - start;
+            nodes += bot.getVisitedNodes();
+        }
+        System.out.println(description + " : " + longFormat.format(nodes) + " nodes in " + longFormat.format(time / 1000000) + "ms, "
+                + longFormat.format(nodes * 1000000000L / Math.max(1, time)) + " nodes/s");
+    }
+}
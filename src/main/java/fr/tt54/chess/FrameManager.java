@@ -9,6 +9,11 @@ import fr.tt54.chess.graphics.ChessPanel2;
 import fr.ttgraphiclib.GraphicManager;
 import fr.ttgraphiclib.thread.Frame;
 
+import javax.swing.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class FrameManager {
 
     public ChessPanel panel;
@@ -20,6 +25,15 @@ public class FrameManager {
 
     private AbstractChessBot bot;
 
+    // The bot searches on this thread, so the window stays responsive during the search
+    private final ExecutorService botExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Bot search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> botSearch;
+    private int positionVersion = 0; // Incremented on each position change, so the result of an outdated search is ignored
+
     public void showFrame(AbstractChessBoard displayedBoard){
         this.displayedBoard = displayedBoard;
 
@@ -32,7 +46,7 @@ public class FrameManager {
         frame = new Frame("Chess", 800, 800);
         GraphicManager.enable(frame, panel2 = new ChessPanel2(this.displayedBoard2 = displayedBoard));
 
-        movePlayedOnBoard();
+        SwingUtilities.invokeLater(this::movePlayedOnBoard);
     }
 
     public void showGame(AbstractChessBoard displayedBoard){
@@ -40,7 +54,18 @@ public class FrameManager {
         this.panel.setBoard(this.displayedBoard);
     }
 
+    /**
+     * Displays a new position, the search of the bot on the previous one being cancelled
+     */
+    public void setPosition(IntegerChessBoard displayedBoard){
+        cancelBotSearch();
+        this.displayedBoard2 = displayedBoard;
+        this.panel2.setBoard(displayedBoard);
+        movePlayedOnBoard();
+    }
+
     public void setBot(AbstractChessBot bot){
+        cancelBotSearch();
         this.bot = bot;
     }
 
@@ -52,15 +77,46 @@ public class FrameManager {
         return this.displayedBoard2.isWhiteToPlay() == this.bot.isWhite();
     }
 
+    /**
+     * Must be called on the event thread after each move played on the displayed board. If it is the turn of the bot, its
+     * move is searched in the background on a copy of the board, then played on the event thread
+     */
     public void movePlayedOnBoard(){
         panel2.refreshBoard();
 
-        System.out.println("ok ?");
-        System.out.println(this.displayedBoard2.isWhiteToPlay());
         if(this.isBotEnabled() && this.isBotTurn()){
-            System.out.println("all");
-            this.bot.playMove(this.displayedBoard2);
-            panel2.refreshBoard();
+            AbstractChessBot searchingBot = this.bot;
+            IntegerChessBoard searchedBoard = new IntegerChessBoard(this.displayedBoard2);
+            int searchedVersion = ++this.positionVersion;
+            // A cancellation after this point stops the search, even if it is still waiting for the previous one
+            int stopCount = searchingBot.getStopCount();
+            botSearch = botExecutor.submit(() -> {
+                long time = System.currentTimeMillis();
+                int bestMove = searchingBot.getBestMove(searchedBoard, stopCount);
+                System.out.println("Bot move found in " + (System.currentTimeMillis() - time) + "ms");
+
+                SwingUtilities.invokeLater(() -> {
+                    if(searchedVersion != this.positionVersion || bestMove == -1){
+                        return;
+                    }
+                    this.displayedBoard2.playMove(bestMove);
+                    movePlayedOnBoard();
+                });
+            });
+        }
+    }
+
+    /**
+     * Stops the current search of the bot, its move will not be played. Must be called on the event thread
+     */
+    public void cancelBotSearch(){
+        this.positionVersion++;
+        if(botSearch != null){
+            botSearch.cancel(false);
+            if(bot != null){
+                bot.stop();
+            }
+            botSearch = null;
         }
     }
 
@@ -2,7 +2,7 @@ package fr.tt54.chess.bots;
 
 import fr.tt54.chess.game.IntegerChessBoard;
 
-public abstract class AbstractChessBot {
+public abstract class AbstractChessBot implements AutoCloseable {
 
     protected boolean white;
 
@@ -12,6 +12,42 @@ public abstract class AbstractChessBot {
 
     public abstract void playMove(IntegerChessBoard board);
 
+    /**
+     * Searches the best move without playing it
+     * @return The best move found, -1 if there is no legal move
+     */
+    public abstract int getBestMove(IntegerChessBoard board);
+
+    /**
+     * Searches the best move without playing it, for a search submitted to another thread
+     * @param stopCount The value of {@link #getStopCount()} when the search was submitted : the search stops if {@link #stop()}
+     *                  was called since, even before the search started
+     * @return The best move found, -1 if there is no legal move
+     */
+    public int getBestMove(IntegerChessBoard board, int stopCount) {
+        return getBestMove(board);
+    }
+
+    /**
+     * Asks the current search and the submitted ones to stop from another thread. Bots which cannot be stopped ignore it
+     */
+    public void stop() {
+    }
+
+    /**
+     * @return The number of calls to {@link #stop()}
+     */
+    public int getStopCount() {
+        return 0;
+    }
+
+    /**
+     * Releases the threads of the bot, which should not search anymore. Bots without threads ignore it
+     */
+    @Override
+    public void close() {
+    }
+
     public boolean isWhite() {
         return white;
     }
@@ -1,123 +1,761 @@
 package fr.tt54.chess.bots;
 
-import fr.tt54.chess.game.ChessPiece;
 import fr.tt54.chess.game.IntegerChessBoard;
+import fr.tt54.chess.game.PieceSquareTables;
+import fr.tt54.chess.nnue.NeuralAccumulator;
+import fr.tt54.chess.nnue.NeuralNetwork;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AlphaBetaBot extends AbstractChessBot{
 
-    private IntegerChessBoard board;
-    private final int depth;
+    public static final int mateValue = 100000;
+    private static final int infinity = 1000000;
+    private static final int defaultHashSizeMb = 16;
+    private static final int pawnHashSizeMb = 1; // Per search thread
+    private static final int defaultEvaluationCacheSizeMb = 0; // See setEvaluationCacheSize, the bench measures the time a cache saves or costs
+    private static final int maxPly = 128;
+    private static final int timeCheckInterval = 2048; // Number of nodes between two clock checks, must be a power of two
+    private static final long moveOverheadMs = 30;
+    private static final int deltaMargin = 200; // A capture is skipped if it cannot bring the evaluation near alpha, even with this bonus
+    private static final long progressIntervalNs = 1000000000L; // Minimal time between two progress reports of the search listener
 
-    private int evaluatedPositions = 0;
+    private int depth;
+    private final TranspositionTable transpositionTable;
+    private EvaluationCache evaluationCache = defaultEvaluationCacheSizeMb > 0 ? new EvaluationCache(defaultEvaluationCacheSizeMb) : null;
+    private NeuralNetwork neuralNetwork; // null to use the handcrafted evaluation
+    private SearchThread[] searchThreads; // The first one searches the given board in the calling thread, the others are helpers
+    private ExecutorService helpersExecutor;
+    private Future<?>[] helperFutures; // Kept between the searches, so a search does not allocate anything
+
+    private long remainingTimeMs = -1; // -1 if the search is only limited by the depth
+    private long incrementMs = 0;
+    private long moveTimeMs = -1; // -1 if the search has no fixed time
+    private long nodeLimit = -1; // -1 if the search has no node limit
+    private SearchListener searchListener;
+    private long searchStartTime;
+    private long softDeadline; // No new iteration is started after this time
+    private long hardDeadline; // The search is aborted after this time
+    private final AtomicInteger stopCount = new AtomicInteger(); // Incremented by each call to stop()
+    private int searchStopCount; // The stop count when the current search was submitted, the search stops when it changes
+    private volatile boolean helpersStopRequested; // Tells the helper threads to stop when the first thread is done
+    private int completedDepth;
+    private int bestEval;
 
     public AlphaBetaBot(boolean white, int depth) {
+        this(white, depth, defaultHashSizeMb);
+    }
+
+    /**
+     * @param depth The maximal depth of the search
+     * @param hashSizeMb The size of the transposition table in MB, 0 to search without transposition table
+     */
+    public AlphaBetaBot(boolean white, int depth, int hashSizeMb) {
         super(white);
-        this.depth = depth;
+        this.depth = Math.min(depth, maxPly - 1);
+        this.transpositionTable = hashSizeMb > 0 ? new TranspositionTable(hashSizeMb) : null;
+        setThreads(1);
+    }
+
+    /**
+     * Limits the next searches with a game clock. The search deepens until the depth of the bot or until its time budget runs out
+     * @param remainingTimeMs The time left on the clock of the bot, -1 to only limit the search by its depth
+     * @param incrementMs The time added to the clock after each move
+     */
+    public void setClock(long remainingTimeMs, long incrementMs) {
+        this.remainingTimeMs = remainingTimeMs;
+        this.incrementMs = incrementMs;
+    }
+
+    /**
+     * Limits the next searches to a fixed time, whatever the clock
+     * @param moveTimeMs The time of each search, -1 to remove this limit
+     */
+    public void setMoveTime(long moveTimeMs) {
+        this.moveTimeMs = moveTimeMs;
+    }
+
+    /**
+     * Limits the next searches to a number of nodes, counted by each thread and checked every few thousand nodes
+     * @param nodeLimit The number of nodes, -1 to remove this limit
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * @param depth The maximal depth of the next searches
+     */
+    public void setDepth(int depth) {
+        this.depth = Math.max(1, Math.min(depth, maxPly - 1));
+    }
+
+    public int getDepth() {
+        return depth;
     }
 
+    /**
+     * @param searchListener Notified by the thread searching the given board, null to remove it
+     */
+    public void setSearchListener(SearchListener searchListener) {
+        this.searchListener = searchListener;
+    }
+
+    /**
+     * Stops the current search and the submitted ones from another thread. A search returns the best move of its last
+     * completed iteration
+     */
     @Override
-    public void playMove(IntegerChessBoard board) {
-        this.evaluatedPositions = 0;
-        this.board = board;
+    public void stop() {
+        stopCount.incrementAndGet();
+    }
+
+    @Override
+    public int getStopCount() {
+        return stopCount.get();
+    }
+
+    private boolean isStopRequested() {
+        return helpersStopRequested || stopCount.get() != searchStopCount;
+    }
+
+    /**
+     * Forgets the positions searched in the previous games
+     */
+    public void clearHash() {
+        if(transpositionTable != null){
+            transpositionTable.clear();
+        }
+        if(evaluationCache != null){
+            evaluationCache.clear();
+        }
+    }
 
+    /**
+     * @param sizeMb The size of the evaluation cache shared by the threads, 0 to evaluate each position without cache
+     */
+    public void setEvaluationCacheSize(int sizeMb) {
+        this.evaluationCache = sizeMb > 0 ? new EvaluationCache(sizeMb) : null;
+    }
+
+    /**
+     * @param network The network evaluating the positions of the next searches, null to use the handcrafted evaluation
+     */
+    public void setNeuralNetwork(NeuralNetwork network) {
+        this.neuralNetwork = network;
+        if(evaluationCache != null){
+            evaluationCache.clear();
+        }
+    }
+
+    public NeuralNetwork getNeuralNetwork() {
+        return neuralNetwork;
+    }
+
+    /**
+     * Sets the number of threads of the next searches (Lazy SMP). Each helper thread runs its own iterative deepening on a
+     * copy of the board, with its own killers and history, and shares its results with the others through the transposition table.
+     * The best move is always the one of the first thread. The helper threads are started by the first search and live
+     * until the next call or {@link #close()}
+     * @param threads The number of threads, at least 1
+     */
+    public void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        close();
+
+        this.searchThreads = new SearchThread[threads];
+        for(int i = 0; i < threads; i++){
+            searchThreads[i] = new SearchThread();
+        }
+        this.helperFutures = new Future<?>[threads - 1];
+    }
+
+    /**
+     * @return The executor of the helper threads, started again if the bot was closed
+     */
+    private ExecutorService getHelpersExecutor() {
+        if(helpersExecutor == null){
+            helpersExecutor = Executors.newFixedThreadPool(searchThreads.length - 1, runnable -> {
+                Thread thread = new Thread(runnable, "AlphaBetaBot helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return helpersExecutor;
+    }
+
+    public int getThreads() {
+        return searchThreads.length;
+    }
+
+    /**
+     * Shuts down the helper threads. Must not be called during a search. The bot can still search, its next search
+     * starting the helper threads again
+     */
+    @Override
+    public void close() {
+        if(helpersExecutor != null){
+            helpersExecutor.shutdownNow();
+            helpersExecutor = null;
+        }
+    }
+
+    @Override
+    public void playMove(IntegerChessBoard board) {
         long time = System.currentTimeMillis();
 
-        int bestMove = -1;
-        if(this.white) {
-            int max = Integer.MIN_VALUE;
-            for (int move : board.getAllowedMoves()) {
-                board.playMove(move);
-                int eval = getAlphaBetaEval(depth-1, depth, Integer.MIN_VALUE, Integer.MAX_VALUE);
-                board.undoMove(move);
+        int bestMove = getBestMove(board);
+        if(bestMove != -1){
+            board.playMove(bestMove);
+        }
 
-                if(eval >= max){
-                    max = eval;
-                    bestMove = move;
+        System.out.println("Evaluated : " + getEvaluatedPositions() + " positions in " + (System.currentTimeMillis() - time) + "ms");
+    }
+
+    @Override
+    public int getBestMove(IntegerChessBoard board) {
+        return getBestMove(board, stopCount.get());
+    }
+
+    @Override
+    public int getBestMove(IntegerChessBoard board, int stopCount) {
+        this.searchStopCount = stopCount;
+        this.helpersStopRequested = false;
+        this.completedDepth = 0;
+        this.searchStartTime = System.nanoTime();
+        computeDeadlines(searchStartTime);
+        if(transpositionTable != null){
+            transpositionTable.newSearch();
+        }
+
+        // The board evaluates with the network of the bot during the search, the helpers copying its accumulators
+        NeuralAccumulator boardAccumulator = board.getNeuralAccumulator();
+        NeuralNetwork boardNetwork = boardAccumulator == null ? null : boardAccumulator.getNetwork();
+        if(boardNetwork != neuralNetwork){
+            board.setNeuralNetwork(neuralNetwork);
+        }
+
+        Future<?>[] helpers = helperFutures;
+        for(int i = 1; i < searchThreads.length; i++){
+            SearchThread helper = searchThreads[i];
+            IntegerChessBoard helperBoard = new IntegerChessBoard(board);
+            // Half of the helpers start one ply deeper, so the threads do not all search the same depth at the same time
+            int firstDepth = 1 + (i & 1);
+            helpers[i - 1] = getHelpersExecutor().submit(() -> helper.search(helperBoard, firstDepth, maxPly - 1, false));
+        }
+
+        SearchThread mainThread = searchThreads[0];
+        int bestMove = mainThread.search(board, 1, depth, true);
+
+        helpersStopRequested = true;
+        for(int i = 0; i < helpers.length; i++){
+            try {
+                helpers[i].get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+            helpers[i] = null;
+        }
+        if(boardNetwork != neuralNetwork){
+            board.setNeuralNetwork(boardNetwork);
+        }
+
+        this.completedDepth = mainThread.completedDepth;
+        this.bestEval = mainThread.bestEval;
+        return bestMove;
+    }
+
+    private void computeDeadlines(long startTime){
+        if(moveTimeMs >= 0){
+            softDeadline = startTime + moveTimeMs * 1000000L;
+            hardDeadline = softDeadline;
+            return;
+        }
+        if(remainingTimeMs < 0){
+            softDeadline = Long.MAX_VALUE;
+            hardDeadline = Long.MAX_VALUE;
+            return;
+        }
+
+        // We plan to use a 30th of the remaining time plus most of the increment, and never more than a third of the clock
+        long available = Math.max(1, remainingTimeMs - moveOverheadMs);
+        long softLimit = Math.min(available, available / 30 + incrementMs * 3 / 4);
+        long hardLimit = Math.max(softLimit, Math.min(softLimit * 4, available / 3));
+
+        softDeadline = startTime + softLimit * 1000000L;
+        hardDeadline = startTime + hardLimit * 1000000L;
+    }
+
+    /**
+     * @return The depth of the last iteration fully searched by the last search
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * @return The evaluation of the best move of the last search, for the player who played it
+     */
+    public int getBestEval() {
+        return bestEval;
+    }
+
+    public int getEvaluatedPositions() {
+        int evaluatedPositions = 0;
+        for(SearchThread searchThread : searchThreads){
+            evaluatedPositions += searchThread.evaluatedPositions;
+        }
+        return evaluatedPositions;
+    }
+
+    /**
+     * @return The number of nodes visited by all the threads during the last search
+     */
+    public long getVisitedNodes() {
+        long visitedNodes = 0;
+        for(SearchThread searchThread : searchThreads){
+            visitedNodes += searchThread.visitedNodes;
+        }
+        return visitedNodes;
+    }
+
+    /**
+     * @return The share of the transposition table probes of the last search that found the position
+     */
+    public double getTranspositionHitRate() {
+        long probes = 0;
+        long hits = 0;
+        for(SearchThread searchThread : searchThreads){
+            probes += searchThread.transpositionProbes;
+            hits += searchThread.transpositionHits;
+        }
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    /**
+     * @return The number of evaluations found in the evaluation cache during the last search
+     */
+    public long getEvaluationCacheHits() {
+        long hits = 0;
+        for(SearchThread searchThread : searchThreads){
+            hits += searchThread.evaluationCacheHits;
+        }
+        return hits;
+    }
+
+    /**
+     * @return The number of evaluations of the last search looked for in the evaluation cache
+     */
+    public long getEvaluationCacheProbes() {
+        long probes = 0;
+        for(SearchThread searchThread : searchThreads){
+            probes += searchThread.evaluationCacheProbes;
+        }
+        return probes;
+    }
+
+    /**
+     * @return The share of the evaluations of the last search found in the evaluation cache
+     */
+    public double getEvaluationCacheHitRate() {
+        long probes = getEvaluationCacheProbes();
+        return probes == 0 ? 0 : (double) getEvaluationCacheHits() / probes;
+    }
+
+    /**
+     * @return The share of the pawn structure evaluations found in the pawn hash tables of the threads, since the creation of the bot
+     */
+    public double getPawnHashHitRate() {
+        long probes = 0;
+        long hits = 0;
+        for(SearchThread searchThread : searchThreads){
+            probes += searchThread.pawnTable.getProbes();
+            hits += searchThread.pawnTable.getHits();
+        }
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    /**
+     * @return The share of the nodes of the last search visited by the quiescence search
+     */
+    public double getQuiescenceNodesRate() {
+        long quiescenceNodes = 0;
+        for(SearchThread searchThread : searchThreads){
+            quiescenceNodes += searchThread.quiescenceNodes;
+        }
+        long visitedNodes = getVisitedNodes();
+        return visitedNodes == 0 ? 0 : (double) quiescenceNodes / visitedNodes;
+    }
+
+    /**
+     * @return The share of the beta cutoffs of the last search that happened on the first searched move, a measure of the move ordering quality
+     */
+    public double getFirstMoveCutoffRate() {
+        return searchThreads[0].moveOrdering.getFirstMoveCutoffRate();
+    }
+
+    /**
+     * Mate scores are stored relative to the stored position instead of the root of the search
+     */
+    private static int scoreToTable(int score, int ply){
+        if(score > mateValue - 1000) return score + ply;
+        if(score < -mateValue + 1000) return score - ply;
+        return score;
+    }
+
+    private static int scoreFromTable(int score, int ply){
+        if(score > mateValue - 1000) return score - ply;
+        if(score < -mateValue + 1000) return score + ply;
+        return score;
+    }
+
+    /**
+     * @return The evaluation of the position for white
+     */
+    public static int evaluatePosition(IntegerChessBoard board){
+        return evaluatePosition(board, null);
+    }
+
+    /**
+     * Uses the neural network attached to the board if any, see {@link IntegerChessBoard#setNeuralNetwork(NeuralNetwork)}, and the handcrafted evaluation otherwise
+     * @param pawnTable The cache of the pawn structure evaluations, null to compute it
+     * @return The evaluation of the position for white
+     */
+    public static int evaluatePosition(IntegerChessBoard board, PawnHashTable pawnTable){
+        NeuralAccumulator accumulator = board.getNeuralAccumulator();
+        if(accumulator != null){
+            return accumulator.evaluate(board);
+        }
+
+        long pawnData = PawnEvaluation.evaluate(board, pawnTable);
+        long attackData = AttackEvaluation.evaluate(board);
+        return PieceSquareTables.getTaperedScore(board.getMidgameScore() + PawnEvaluation.getMidgameScore(pawnData) + AttackEvaluation.getMidgameScore(attackData),
+                board.getEndgameScore() + PawnEvaluation.getEndgameScore(pawnData) + AttackEvaluation.getEndgameScore(attackData), board.getGamePhase());
+    }
+
+    private static final int[] pieceValue = {-1000, -900, -500, -320, -300, -100, 0, 100, 300, 320, 500, 900, 1000}; // [piece id + 6], used by the delta pruning
+
+    /**
+     * The search state owned by one thread : its board, its move buffers, its move ordering tables and its counters
+     */
+    private class SearchThread {
+
+        private final int[][] moveBuffers = IntegerChessBoard.createMoveBuffers(maxPly); // [ply][move index]
+        private final MoveOrdering moveOrdering = new MoveOrdering(maxPly);
+        private final PawnHashTable pawnTable = new PawnHashTable(pawnHashSizeMb);
+
+        private IntegerChessBoard board;
+        private boolean stopped;
+        private long nextProgressTime;
+        private int completedDepth;
+        private int bestEval;
+
+        private int evaluatedPositions = 0;
+        private long visitedNodes = 0;
+        private long quiescenceNodes = 0;
+        private long transpositionProbes = 0;
+        private long transpositionHits = 0;
+        private long evaluationCacheProbes = 0;
+        private long evaluationCacheHits = 0;
+
+        /**
+         * Iterative deepening from the given depth until the last depth, the clock or a stop request
+         * @param useSoftDeadline If no new iteration should be started after the soft deadline
+         * @return The best move of the last completed iteration, -1 if there is no legal move
+         */
+        private int search(IntegerChessBoard board, int firstDepth, int lastDepth, boolean useSoftDeadline){
+            this.evaluatedPositions = 0;
+            this.visitedNodes = 0;
+            this.quiescenceNodes = 0;
+            this.transpositionProbes = 0;
+            this.transpositionHits = 0;
+            this.evaluationCacheProbes = 0;
+            this.evaluationCacheHits = 0;
+            this.board = board;
+            this.stopped = isStopRequested(); // A search stopped before it started returns its first move at once
+            this.completedDepth = 0;
+            this.nextProgressTime = searchStartTime + progressIntervalNs;
+            moveOrdering.newSearch();
+
+            long rootEntry = transpositionTable != null ? transpositionTable.probe(board.getHash()) : 0;
+
+            int[] moves = moveBuffers[0];
+            int movesCount = board.fillAllowedMoves(moves);
+            if(movesCount == 0){
+                return -1;
+            }
+            // The root moves are fully sorted once, then each iteration moves its best move first
+            moveOrdering.scoreMoves(moves, movesCount, 0, TranspositionTable.getMove(rootEntry), board.isWhiteToPlay());
+            for(int i = 0; i < movesCount; i++){
+                moveOrdering.pickNextMove(moves, movesCount, i, 0);
+            }
+
+            // Iterative deepening : each iteration searches first the best move of the previous one
+            int bestMove = moves[0];
+            for(int iterationDepth = Math.min(firstDepth, lastDepth); iterationDepth <= lastDepth; iterationDepth++){
+                int iterationBestMove = -1;
+                int iterationBestIndex = 0;
+                int alpha = -infinity;
+                for (int i = 0; i < movesCount; i++) {
+                    int move = moves[i];
+                    board.playMove(move);
+                    int eval = -getAlphaBetaEval(iterationDepth - 1, 1, -infinity, -alpha);
+                    board.undoMove(move);
+
+                    if(stopped){
+                        break;
+                    }
+                    if(eval > alpha){
+                        alpha = eval;
+                        iterationBestMove = move;
+                        iterationBestIndex = i;
+                    }
+                }
+
+                if(stopped){
+                    // The results of an unfinished iteration are not reliable
+                    break;
+                }
+
+                bestMove = iterationBestMove;
+                bestEval = alpha;
+                completedDepth = iterationDepth;
+                System.arraycopy(moves, 0, moves, 1, iterationBestIndex);
+                moves[0] = bestMove;
+
+                if(transpositionTable != null){
+                    transpositionTable.store(board.getHash(), iterationDepth, TranspositionTable.EXACT, alpha, bestMove);
+                }
+                if(searchListener != null && this == searchThreads[0]){
+                    searchListener.onIteration(iterationDepth, alpha, getVisitedNodes(), System.nanoTime() - searchStartTime, getPrincipalVariation(bestMove, iterationDepth));
+                }
+
+                if(isStopRequested() || (useSoftDeadline && System.nanoTime() >= softDeadline)){
+                    break;
                 }
             }
-        } else {
-            int min = Integer.MAX_VALUE;
-            for (int move : board.getAllowedMoves()) {
+
+            return bestMove;
+        }
+
+        private void checkClock(){
+            long time = System.nanoTime();
+            if(isStopRequested() || time >= hardDeadline || (nodeLimit >= 0 && visitedNodes >= nodeLimit)){
+                stopped = true;
+            }
+            if(searchListener != null && time >= nextProgressTime && this == searchThreads[0]){
+                nextProgressTime = time + progressIntervalNs;
+                searchListener.onProgress(getVisitedNodes(), time - searchStartTime);
+            }
+        }
+
+        /**
+         * @return The evaluation of the position for white, read from the evaluation cache if it was already evaluated
+         */
+        private int evaluate(){
+            if(evaluationCache == null){
+                return evaluatePosition(board, pawnTable);
+            }
+
+            this.evaluationCacheProbes++;
+            long hash = board.getHash();
+            int eval = evaluationCache.probe(hash);
+            if(eval != EvaluationCache.miss){
+                this.evaluationCacheHits++;
+                return eval;
+            }
+            eval = evaluatePosition(board, pawnTable);
+            evaluationCache.store(hash, eval);
+            return eval;
+        }
+
+        /**
+         * Follows the best moves stored in the transposition table from the root, each of them being checked to be legal
+         * @return The expected moves of the game, starting with the best move, at most maxLength moves
+         */
+        private int[] getPrincipalVariation(int bestMove, int maxLength){
+            int[] variation = new int[maxLength];
+            int length = 0;
+            int move = bestMove;
+            while(length < maxLength){
+                variation[length++] = move;
                 board.playMove(move);
-                int eval = getAlphaBetaEval(depth-1, depth, Integer.MIN_VALUE, Integer.MAX_VALUE);
-                board.undoMove(move);
 
-                if(eval <= min){
-                    min = eval;
-                    bestMove = move;
+                long entry = transpositionTable != null ? transpositionTable.probe(board.getHash()) : 0;
+                move = TranspositionTable.getMove(entry);
+                if(move == 0 || !isAllowedMove(move, moveBuffers[length])){
+                    break;
                 }
             }
+            for(int i = length - 1; i >= 0; i--){
+                board.undoMove(variation[i]);
+            }
+            return Arrays.copyOf(variation, length);
         }
 
-        if(bestMove != -1){
-            board.playMove(bestMove);
+        private boolean isAllowedMove(int move, int[] moves){
+            int movesCount = board.fillAllowedMoves(moves);
+            for(int i = 0; i < movesCount; i++){
+                if(moves[i] == move){
+                    return true;
+                }
+            }
+            return false;
         }
 
-        System.out.println("Evaluated : " + evaluatedPositions + " positions in " + (System.currentTimeMillis() - time) + "ms");
-    }
+        /**
+         * Negamax alpha-beta search
+         * @param ply The distance from the root of the search
+         * @return The evaluation of the position for the player to move
+         */
+        private int getAlphaBetaEval(int depth, int ply, int alpha, int beta){
+            this.visitedNodes++;
+            if((visitedNodes & (timeCheckInterval - 1)) == 0){
+                checkClock();
+            }
+            if(stopped){
+                return 0;
+            }
 
-    public int getAlphaBetaEval(int depth, int maxDepth, int alpha, int beta){
-        if(depth == 0){
-            this.evaluatedPositions++;
-            return evaluatePosition();
-        }
+            if(depth == 0 || ply >= maxPly - 1){
+                this.visitedNodes--; // The node is counted by the quiescence search
+                return getQuiescenceEval(ply, alpha, beta);
+            }
 
-        boolean evalWhite = board.isWhiteToPlay();
+            long hash = board.getHash();
+            int transpositionMove = 0;
+            if(transpositionTable != null){
+                this.transpositionProbes++;
+                long entry = transpositionTable.probe(hash);
+                if(entry != 0){
+                    this.transpositionHits++;
+                    transpositionMove = TranspositionTable.getMove(entry);
+                    if(TranspositionTable.getDepth(entry) >= depth){
+                        int score = scoreFromTable(TranspositionTable.getScore(entry), ply);
+                        switch (TranspositionTable.getBound(entry)){
+                            case TranspositionTable.EXACT -> {return score;}
+                            case TranspositionTable.LOWER_BOUND -> {if(score >= beta) return score;}
+                            case TranspositionTable.UPPER_BOUND -> {if(score <= alpha) return score;}
+                        }
+                    }
+                }
+            }
 
-        List<Integer> moves = this.board.getAllowedMoves();
-        if(moves.isEmpty()){
-            this.evaluatedPositions++;
-            return this.board.isKingInCheck() ? (evalWhite ? -100000 + (maxDepth - depth) : 100000 - (maxDepth - depth)) : 0;
-        } else {
-            if(evalWhite){
-                // We should maximize the eval
+            int[] moves = moveBuffers[ply];
+            int movesCount = this.board.fillAllowedMoves(moves);
+            if(movesCount == 0){
+                this.evaluatedPositions++;
+                return this.board.isKingInCheck() ? -mateValue + ply : 0;
+            }
+            boolean white = board.isWhiteToPlay();
+            moveOrdering.scoreMoves(moves, movesCount, ply, transpositionMove, white);
 
-                int max = Integer.MIN_VALUE;
-                for(int move : moves){
-                    this.board.playMove(move);
-                    max = Math.max(max, getAlphaBetaEval(depth - 1, maxDepth, alpha, beta));
-                    this.board.undoMove(move);
+            int initialAlpha = alpha;
+            int max = -infinity;
+            int bestMove = 0;
+            for(int i = 0; i < movesCount; i++){
+                int move = moveOrdering.pickNextMove(moves, movesCount, i, ply);
+                this.board.playMove(move);
+                int eval = -getAlphaBetaEval(depth - 1, ply + 1, -beta, -alpha);
+                this.board.undoMove(move);
 
+                if(stopped){
+                    return 0;
+                }
+                if(eval > max){
+                    max = eval;
+                    bestMove = move;
                     if(max >= beta){
-                        return max;
+                        moveOrdering.onBetaCutoff(move, i, ply, depth, white);
+                        break;
                     }
                     alpha = Math.max(alpha, max);
                 }
+            }
+
+            if(transpositionTable != null){
+                int bound = max >= beta ? TranspositionTable.LOWER_BOUND : max > initialAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND;
+                transpositionTable.store(hash, depth, bound, scoreToTable(max, ply), bound == TranspositionTable.UPPER_BOUND ? 0 : bestMove);
+            }
+
+            return max;
+        }
 
-                return max;
+        /**
+         * Extends the leaves of the search with the captures and the promotions only, until the position is quiet
+         * @return The evaluation of the position for the player to move
+         */
+        private int getQuiescenceEval(int ply, int alpha, int beta){
+            this.visitedNodes++;
+            this.quiescenceNodes++;
+            if((visitedNodes & (timeCheckInterval - 1)) == 0){
+                checkClock();
+            }
+            if(stopped){
+                return 0;
+            }
+
+            this.evaluatedPositions++;
+            boolean white = board.isWhiteToPlay();
+            if(ply >= maxPly - 1){
+                int whiteEval = evaluate();
+                return white ? whiteEval : -whiteEval;
+            }
+
+            // The moves are generated before the evaluation, which reads the attack data filled by the generation
+            int[] moves = moveBuffers[ply];
+            int movesCount = board.fillCaptureMoves(moves);
+            boolean inCheck = board.isKingInCheck();
+            int whiteEval = evaluate();
+            int standPat = white ? whiteEval : -whiteEval;
+
+            int max;
+            if(inCheck){
+                // The player cannot stand pat when in check, so all the evasions are searched
+                movesCount = board.fillAllowedMoves(moves);
+                if(movesCount == 0){
+                    return -mateValue + ply;
+                }
+                max = -infinity;
             } else {
-                // We should minimize the eval
+                if(standPat >= beta){
+                    return standPat;
+                }
+                alpha = Math.max(alpha, standPat);
+                max = standPat;
+            }
 
-                int min = Integer.MAX_VALUE;
-                for(int move : moves){
-                    this.board.playMove(move);
-                    min = Math.min(min, getAlphaBetaEval(depth - 1, maxDepth, alpha, beta));
-                    this.board.undoMove(move);
+            moveOrdering.scoreMoves(moves, movesCount, ply, 0, white);
+            for(int i = 0; i < movesCount; i++){
+                int move = moveOrdering.pickNextMove(moves, movesCount, i, ply);
 
-                    if(alpha >= min){
-                        return min;
-                    }
-                    beta = Math.min(beta, min);
+                if(!inCheck && move >= 0 && standPat + pieceValue[((move & 0x00038000) >>> 15) + 6] + deltaMargin <= alpha){
+                    // Delta pruning : even winning this piece would not raise alpha
+                    continue;
                 }
 
-                return min;
-            }
-        }
-    }
+                board.playMove(move);
+                int eval = -getQuiescenceEval(ply + 1, -beta, -alpha);
+                board.undoMove(move);
 
-    public int evaluatePosition(){
-        int eval = 0;
-        for(Map.Entry<ChessPiece, Set<Integer>> piecePositions : this.board.getPiecesPositions().entrySet()){
-            for(int position : piecePositions.getValue()){
-                eval += pieceValue[piecePositions.getKey().getId() + 6];
+                if(stopped){
+                    return 0;
+                }
+                if(eval > max){
+                    max = eval;
+                    if(max >= beta){
+                        return max;
+                    }
+                    alpha = Math.max(alpha, max);
+                }
             }
+
+            return max;
         }
-        return eval;
     }
-
-    private static final int[] pieceValue = {-1000, -900, -500, -320, -300, -100, 0, 100, 300, 320, 500, 900, 1000};
 }
@@ -0,0 +1,96 @@
+package fr.tt54.chess.bots;
+
+import fr.tt54.chess.game.BitboardAttacks;
+import fr.tt54.chess.game.ChessPiece;
+import fr.tt54.chess.game.IntegerChessBoard;
+
+/**
+ * Evaluation terms read from the attack data of the board : mobility, attacks on the king zone, hanging pieces and pinned
+ * pieces. The move generation of the position already filled this data most of the time, see {@link IntegerChessBoard#fillAttackData()},
+ * so these terms cost no attack computation.
+ * An evaluation is packed in a long like in {@link PawnEvaluation} : the middlegame score (bits 0-15) and the endgame score
+ * (bits 16-31), both offset to be positive. The scores are the ones of white
+ */
+public class AttackEvaluation {
+
+    private static final long fileA = 0x0101010101010101L;
+    private static final long fileH = fileA << 7;
+    private static final int scoreOffset = 1 << 15;
+
+    // [unsigned piece id], for the knights, the bishops, the rooks and the queens
+    private static final int[] mobilityMidgame = {0, 0, 4, 5, 2, 1, 0}; // Per attacked square, around the usual number of squares
+    private static final int[] mobilityEndgame = {0, 0, 4, 5, 4, 2, 0};
+    private static final int[] mobilityBase = {0, 0, 4, 6, 6, 12, 0};
+    private static final int[] kingZoneAttackWeights = {0, 0, 12, 12, 18, 30, 0}; // Per attacked square of the king zone
+    private static final int[] pinnedMidgame = {0, 5, 15, 15, 20, 25, 0};
+    private static final int[] pinnedEndgame = {0, 5, 10, 10, 15, 20, 0};
+
+    private static final int[] kingAttackersScale = {0, 0, 50, 75, 88, 94, 97, 99}; // [attackers count], in percent : a single attacker is rarely dangerous
+    private static final int hangingMidgame = 20;
+    private static final int hangingEndgame = 20;
+
+    /**
+     * @return The packed evaluation of the attacks of both players
+     */
+    public static long evaluate(IntegerChessBoard board){
+        board.fillAttackData();
+
+        int midgame = 0;
+        int endgame = 0;
+        for(int side = 0; side < 2; side++){
+            boolean white = side == 0;
+            int sign = white ? 1 : -1;
+
+            long ownPieces = board.getColorBitboard(white);
+            long opponentPawns = board.getPieceBitboard(white ? ChessPiece.BLACK_PAWN : ChessPiece.WHITE_PAWN);
+            long opponentPawnAttacks = white ? ((opponentPawns >>> 7) & ~fileA) | ((opponentPawns >>> 9) & ~fileH)
+                    : ((opponentPawns << 7) & ~fileH) | ((opponentPawns << 9) & ~fileA);
+            long mobilityArea = ~ownPieces & ~opponentPawnAttacks;
+            int opponentKingPosition = Long.numberOfTrailingZeros(board.getPieceBitboard(white ? ChessPiece.BLACK_KING : ChessPiece.WHITE_KING));
+            long opponentKingZone = BitboardAttacks.getKingAttacks(opponentKingPosition) | (1L << opponentKingPosition);
+
+            int kingAttackers = 0;
+            int kingAttackWeight = 0;
+            for(int unsignedId = 2; unsignedId <= 5; unsignedId++){
+                for(long positions = board.getPieceBitboard(ChessPiece.getPiece(sign * unsignedId)); positions != 0; positions &= positions - 1){
+                    long attacks = board.getPieceAttacks(Long.numberOfTrailingZeros(positions));
+
+                    int mobility = Long.bitCount(attacks & mobilityArea) - mobilityBase[unsignedId];
+                    midgame += sign * mobility * mobilityMidgame[unsignedId];
+                    endgame += sign * mobility * mobilityEndgame[unsignedId];
+
+                    long zoneAttacks = attacks & opponentKingZone;
+                    if(zoneAttacks != 0){
+                        kingAttackers++;
+                        kingAttackWeight += kingZoneAttackWeights[unsignedId] * Long.bitCount(zoneAttacks);
+                    }
+                }
+            }
+            // The king safety only matters in the middlegame, when the attackers can be backed by many pieces
+            midgame += sign * kingAttackWeight * kingAttackersScale[Math.min(kingAttackers, kingAttackersScale.length - 1)] / 100;
+
+            // The pieces attacked and not defended, the kings and the pawns excepted
+            long ownPawnsAndKing = board.getPieceBitboard(white ? ChessPiece.WHITE_PAWN : ChessPiece.BLACK_PAWN)
+                    | board.getPieceBitboard(white ? ChessPiece.WHITE_KING : ChessPiece.BLACK_KING);
+            int hangingPieces = Long.bitCount(ownPieces & ~ownPawnsAndKing & board.getAttackedSquares(!white) & ~board.getAttackedSquares(white));
+            midgame -= sign * hangingPieces * hangingMidgame;
+            endgame -= sign * hangingPieces * hangingEndgame;
+
+            for(long pinned = board.getPinnedPieces(white); pinned != 0; pinned &= pinned - 1){
+                int unsignedId = board.getPiece(Long.numberOfTrailingZeros(pinned)).getUnsignedId();
+                midgame -= sign * pinnedMidgame[unsignedId];
+                endgame -= sign * pinnedEndgame[unsignedId];
+            }
+        }
+
+        return (midgame + scoreOffset) | ((long) (endgame + scoreOffset) << 16);
+    }
+
+    public static int getMidgameScore(long data){
+        return (int) (data & 0xffff) - scoreOffset;
+    }
+
+    public static int getEndgameScore(long data){
+        return (int) ((data >>> 16) & 0xffff) - scoreOffset;
+    }
+}
@@ -0,0 +1,50 @@
+package fr.tt54.chess.bots;
+
+import java.util.Arrays;
+
+/**
+ * Small lossy table caching the static evaluations by position hash, shared by the search threads.
+ * Each entry is a single long : the upper 48 bits of the hash, then the evaluation offset to be positive in the lower 16 bits.
+ * A long is written at once, so the table needs no lock and an entry is never seen half written. A new entry always
+ * replaces the old one
+ */
+public class EvaluationCache {
+
+    public static final int miss = Integer.MIN_VALUE;
+
+    private static final long keyMask = ~0xffffL;
+    private static final int scoreOffset = 1 << 15;
+
+    private final long[] entries;
+    private final int indexMask;
+
+    /**
+     * @param sizeMb The memory used by the table, rounded down to a power of two number of entries
+     */
+    public EvaluationCache(int sizeMb){
+        long entriesCount = Long.highestOneBit(Math.max(1L, sizeMb * 1024L * 1024L / 8L));
+        entriesCount = Math.min(entriesCount, 1L << 30);
+        this.entries = new long[(int) entriesCount];
+        this.indexMask = (int) entriesCount - 1;
+    }
+
+    /**
+     * @return The evaluation stored for this hash, {@link #miss} if it is not in the table
+     */
+    public int probe(long hash){
+        long entry = entries[(int) hash & indexMask];
+        if(entry != 0 && ((entry ^ hash) & keyMask) == 0){
+            return (int) (entry & 0xffff) - scoreOffset;
+        }
+        return miss;
+    }
+
+    public void store(long hash, int eval){
+        if(eval <= -scoreOffset || eval >= scoreOffset) return;
+        entries[(int) hash & indexMask] = (hash & keyMask) | (eval + scoreOffset);
+    }
+
+    public void clear(){
+        Arrays.fill(entries, 0L);
+    }
+}
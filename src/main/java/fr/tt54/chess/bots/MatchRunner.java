@@ -0,0 +1,276 @@
+package fr.tt54.chess.bots;
+
+import fr.tt54.chess.game.ChessPiece;
+import fr.tt54.chess.game.IntegerChessBoard;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Plays games between two bot configurations to measure the strength difference of a change.
+ * Each opening is played twice, once with each bot as white, and the games run concurrently on a thread pool, each game
+ * owning its board and its two bots. The games are adjudicated on mates, stalemates, repetitions, the 50 moves rule and
+ * insufficient material. The score, the Elo difference and the SPRT verdict are printed after each game, and the match
+ * stops as soon as the SPRT accepts one of its hypotheses
+ */
+public class MatchRunner {
+
+    private static final int maxGamePlies = 600; // Longer games are adjudicated as draws
+    private static final double sprtAlpha = 0.05;
+    private static final double sprtBeta = 0.05;
+
+    private final Supplier<? extends AbstractChessBot> firstBot;
+    private final Supplier<? extends AbstractChessBot> secondBot;
+    private final List<String> openings;
+    private final int concurrency;
+    private final double elo0;
+    private final double elo1;
+
+    private int wins;
+    private int draws;
+    private int losses;
+    private volatile boolean finished;
+
+    /**
+     * @param firstBot Creates the tested bot, the results are given for this one
+     * @param secondBot Creates the reference bot
+     * @param openings The FENs of the starting positions
+     * @param concurrency The number of games played at the same time
+     * @param elo0 The Elo difference of the SPRT null hypothesis, for example 0
+     * @param elo1 The Elo difference of the SPRT alternative hypothesis, for example 10
+     */
+    public MatchRunner(Supplier<? extends AbstractChessBot> firstBot, Supplier<? extends AbstractChessBot> secondBot, List<String> openings,
+                       int concurrency, double elo0, double elo1){
+        this.firstBot = firstBot;
+        this.secondBot = secondBot;
+        this.openings = openings;
+        this.concurrency = Math.max(1, concurrency);
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+    }
+
+    /**
+     * Reads an opening file, one FEN per line. The EPD operations after a ';' and the lines starting with '#' are ignored
+     */
+    public static List<String> readOpenings(Path file) throws IOException {
+        return Files.readAllLines(file).stream()
+                .map(line -> line.split(";")[0].trim())
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .toList();
+    }
+
+    /**
+     * Plays the match until the games count or a SPRT verdict
+     * @param games The maximal number of games, rounded up to play each opening with both colors
+     * @return The Elo difference of the first bot
+     */
+    public double run(int games){
+        wins = 0;
+        draws = 0;
+        losses = 0;
+        finished = false;
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "Match game");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int pairs = (games + 1) / 2;
+        Future<?>[] futures = new Future<?>[pairs * 2];
+        for(int i = 0; i < pairs * 2; i++){
+            String opening = openings.get((i / 2) % openings.size());
+            boolean firstBotWhite = i % 2 == 0;
+            int gameNumber = i + 1;
+            futures[i] = executor.submit(() -> {
+                if(finished) return;
+                GameResult result = playGame(opening, firstBotWhite);
+                onGameFinished(gameNumber, opening, firstBotWhite, result);
+            });
+        }
+
+        try {
+            for(Future<?> future : futures){
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return getElo(getScore());
+    }
+
+    /**
+     * Plays a game between two new bots, closed at the end of the game
+     * @return The result of the game for the first bot
+     */
+    private GameResult playGame(String opening, boolean firstBotWhite){
+        try(AbstractChessBot first = firstBot.get(); AbstractChessBot second = secondBot.get()){
+            return playGame(new IntegerChessBoard(opening), first, second, firstBotWhite);
+        }
+    }
+
+    private GameResult playGame(IntegerChessBoard board, AbstractChessBot first, AbstractChessBot second, boolean firstBotWhite){
+
+        // The positions since the last capture or pawn move, the only ones which can be repeated
+        long[] positions = new long[maxGamePlies + 1];
+        int positionsCount = 0;
+        positions[positionsCount++] = board.getHash();
+        int halfMoves = 0;
+        int[] moves = new int[IntegerChessBoard.MAX_MOVES];
+
+        for(int ply = 0; ply < maxGamePlies; ply++){
+            if(board.fillAllowedMoves(moves) == 0){
+                if(!board.isKingInCheck()){
+                    return new GameResult(0.5, "stalemate");
+                }
+                boolean firstBotMated = board.isWhiteToPlay() == firstBotWhite;
+                return new GameResult(firstBotMated ? 0 : 1, "checkmate");
+            }
+            if(halfMoves >= 100){
+                return new GameResult(0.5, "50 moves rule");
+            }
+            if(isInsufficientMaterial(board)){
+                return new GameResult(0.5, "insufficient material");
+            }
+
+            AbstractChessBot bot = board.isWhiteToPlay() == firstBotWhite ? first : second;
+            int move = bot.getBestMove(board);
+            board.playMove(move);
+
+            if(IntegerChessBoard.getMoveCapturedPiece(move) != 0 || IntegerChessBoard.getMoveMovedPiece(move) == ChessPiece.WHITE_PAWN.getUnsignedId()){
+                halfMoves = 0;
+                positionsCount = 0;
+            } else {
+                halfMoves++;
+            }
+
+            long hash = board.getHash();
+            int repetitions = 1;
+            for(int i = positionsCount - 2; i >= 0; i -= 2){
+                if(positions[i] == hash){
+                    repetitions++;
+                }
+            }
+            positions[positionsCount++] = hash;
+            if(repetitions >= 3){
+                return new GameResult(0.5, "threefold repetition");
+            }
+        }
+        return new GameResult(0.5, "maximal length");
+    }
+
+    /**
+     * @return If no sequence of legal moves can lead to a checkmate : only the kings, or the kings and a single knight or bishop
+     */
+    private static boolean isInsufficientMaterial(IntegerChessBoard board){
+        long pawnsRooksQueens = board.getPieceBitboard(ChessPiece.WHITE_PAWN) | board.getPieceBitboard(ChessPiece.BLACK_PAWN)
+                | board.getPieceBitboard(ChessPiece.WHITE_ROOK) | board.getPieceBitboard(ChessPiece.BLACK_ROOK)
+                | board.getPieceBitboard(ChessPiece.WHITE_QUEEN) | board.getPieceBitboard(ChessPiece.BLACK_QUEEN);
+        return pawnsRooksQueens == 0 && Long.bitCount(board.getOccupiedSquares()) <= 3;
+    }
+
+    private synchronized void onGameFinished(int gameNumber, String opening, boolean firstBotWhite, GameResult result){
+        if(finished) return;
+
+        if(result.score() == 1){
+            wins++;
+        } else if(result.score() == 0){
+            losses++;
+        } else {
+            draws++;
+        }
+
+        double score = getScore();
+        double margin = getScoreMargin();
+        double llr = getLogLikelihoodRatio();
+        double lowerBound = Math.log(sprtBeta / (1 - sprtAlpha));
+        double upperBound = Math.log((1 - sprtBeta) / sprtAlpha);
+
+        String gameResult = result.score() == 0.5 ? "1/2-1/2" : (result.score() == 1) == firstBotWhite ? "1-0" : "0-1";
+        System.out.println("Game " + gameNumber + " (" + (firstBotWhite ? "first bot white" : "first bot black") + ") : " + gameResult + " by " + result.reason() + " from " + opening);
+        System.out.println("  W/D/L : " + wins + "/" + draws + "/" + losses + ", Elo : " + formatElo(getElo(score))
+                + " (" + formatElo(getElo(score - margin)) + " to " + formatElo(getElo(score + margin)) + ")"
+                + ", LLR : " + String.format(Locale.ENGLISH, "%.2f", llr) + " [" + String.format(Locale.ENGLISH, "%.2f, %.2f", lowerBound, upperBound) + "]");
+
+        if(llr >= upperBound || llr <= lowerBound){
+            System.out.println("SPRT : H" + (llr >= upperBound ? "1" : "0") + " accepted, the Elo difference is " + (llr >= upperBound ? "at least " + elo1 : "at most " + elo0));
+            finished = true;
+        }
+    }
+
+    private double getScore(){
+        int games = wins + draws + losses;
+        return games == 0 ? 0.5 : (wins + draws * 0.5) / games;
+    }
+
+    /**
+     * @return The variance of the score of one game
+     */
+    private double getScoreVariance(){
+        int games = wins + draws + losses;
+        if(games == 0) return 0;
+        double score = getScore();
+        return (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score) + losses * score * score) / games;
+    }
+
+    /**
+     * @return The 95% confidence margin of the score
+     */
+    private double getScoreMargin(){
+        int games = wins + draws + losses;
+        return games == 0 ? 0 : 1.96 * Math.sqrt(getScoreVariance() / games);
+    }
+
+    /**
+     * Log-likelihood ratio of the generalized SPRT on the trinomial results, with the normal approximation of the score
+     */
+    private double getLogLikelihoodRatio(){
+        int games = wins + draws + losses;
+        double variance = getScoreVariance();
+        if(variance == 0) return 0;
+        double score0 = getExpectedScore(elo0);
+        double score1 = getExpectedScore(elo1);
+        return games * (score1 - score0) * (2 * getScore() - score0 - score1) / (2 * variance);
+    }
+
+    private static double getExpectedScore(double elo){
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    private static double getElo(double score){
+        score = Math.min(Math.max(score, 0.001), 0.999);
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static String formatElo(double elo){
+        return String.format(Locale.ENGLISH, "%+.1f", elo);
+    }
+
+    public int getWins() {
+        return wins;
+    }
+
+    public int getDraws() {
+        return draws;
+    }
+
+    public int getLosses() {
+        return losses;
+    }
+
+    /**
+     * @param score 1 for a win of the first bot, 0.5 for a draw and 0 for a loss
+     */
+    private record GameResult(double score, String reason) {
+    }
+}
@@ -1,36 +1,47 @@
 package fr.tt54.chess.bots;
 
-import fr.tt54.chess.game.ChessPiece;
 import fr.tt54.chess.game.IntegerChessBoard;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
 public class MinMaxBot extends AbstractChessBot{
 
     private static final int mateValue = 100000;
 
     private IntegerChessBoard board;
     private final int depth;
+    private final int[][] moveBuffers; // [ply][move index]
     private int evaluatedPositions = 0;
 
     public MinMaxBot(boolean white, int depth) {
         super(white);
         this.depth = depth;
+        this.moveBuffers = IntegerChessBoard.createMoveBuffers(depth + 1);
     }
 
     @Override
     public void playMove(IntegerChessBoard board) {
+        long time = System.currentTimeMillis();
+
+        int bestMove = getBestMove(board);
+        if(bestMove != -1){
+            board.playMove(bestMove);
+        }
+
+        System.out.println("Evaluated : " + evaluatedPositions + " positions in " + (System.currentTimeMillis() - time) + "ms");
+    }
+
+    @Override
+    public int getBestMove(IntegerChessBoard board) {
         this.evaluatedPositions = 0;
         this.board = board;
 
-        long time = System.currentTimeMillis();
+        int[] moves = moveBuffers[0];
+        int movesCount = board.fillAllowedMoves(moves);
 
         int bestMove = -1;
         if(this.white) {
             int max = Integer.MIN_VALUE;
-            for (int move : board.getAllowedMoves()) {
+            for (int i = 0; i < movesCount; i++) {
+                int move = moves[i];
                 board.playMove(move);
                 int eval = getMinMaxEval(depth-1, depth);
                 board.undoMove(move);
@@ -42,7 +53,8 @@ public class MinMaxBot extends AbstractChessBot{
             }
         } else {
             int min = Integer.MAX_VALUE;
-            for (int move : board.getAllowedMoves()) {
+            for (int i = 0; i < movesCount; i++) {
+                int move = moves[i];
                 board.playMove(move);
                 int eval = getMinMaxEval(depth-1, depth);
                 board.undoMove(move);
@@ -58,11 +70,11 @@ public class MinMaxBot extends AbstractChessBot{
             System.out.println("best is " + min);
         }
 
-        if(bestMove != -1){
-            board.playMove(bestMove);
-        }
+        return bestMove;
+    }
 
-        System.out.println("Evaluated : " + evaluatedPositions + " positions in " + (System.currentTimeMillis() - time) + "ms");
+    public int getEvaluatedPositions() {
+        return evaluatedPositions;
     }
 
     public int getMinMaxEval(int depth, int maxDepth){
@@ -73,8 +85,9 @@ public class MinMaxBot extends AbstractChessBot{
 
         boolean evalWhite = board.isWhiteToPlay();
 
-        List<Integer> moves = this.board.getAllowedMoves();
-        if(moves.isEmpty()){
+        int[] moves = moveBuffers[maxDepth - depth];
+        int movesCount = this.board.fillAllowedMoves(moves);
+        if(movesCount == 0){
             this.evaluatedPositions++;
             return this.board.isKingInCheck() ? (evalWhite ? -100000 + (maxDepth - depth) : 100000 - (maxDepth - depth)) : 0;
         } else {
@@ -82,7 +95,8 @@ public class MinMaxBot extends AbstractChessBot{
                 // We should maximize the eval
 
                 int max = Integer.MIN_VALUE;
-                for(int move : moves){
+                for(int i = 0; i < movesCount; i++){
+                    int move = moves[i];
                     this.board.playMove(move);
                     int eval = getMinMaxEval(depth - 1, maxDepth);
                     this.board.undoMove(move);
@@ -97,7 +111,8 @@ public class MinMaxBot extends AbstractChessBot{
                 // We should minimize the eval
 
                 int min = Integer.MAX_VALUE;
-                for(int move : moves){
+                for(int i = 0; i < movesCount; i++){
+                    int move = moves[i];
                     this.board.playMove(move);
                     int eval = getMinMaxEval(depth - 1, maxDepth);
                     this.board.undoMove(move);
@@ -113,14 +128,6 @@ public class MinMaxBot extends AbstractChessBot{
     }
 
     public int evaluatePosition(){
-        int eval = 0;
-        for(Map.Entry<ChessPiece, Set<Integer>> piecePositions : this.board.getPiecesPositions().entrySet()){
-            for(int position : piecePositions.getValue()){
-                eval += pieceValue[piecePositions.getKey().getId() + 6];
-            }
-        }
-        return eval;
+        return this.board.getPieceSquareScore();
     }
-
-    private static final int[] pieceValue = {-1000, -900, -500, -320, -300, -100, 0, 100, 300, 320, 500, 900, 1000};
 }
@@ -0,0 +1,135 @@
+package fr.tt54.chess.bots;
+
+import fr.tt54.chess.game.IntegerChessBoard;
+
+import java.util.Arrays;
+
+/**
+ * Gives a score to each move so the moves most likely to cause a beta cutoff are searched first :
+ * the transposition table move, then the captures and promotions (most valuable victim, least valuable attacker),
+ * then the two killer moves of the ply, then the quiet moves ordered by the history heuristic.
+ * The moves are only sorted as far as the search goes, with a selection of the best remaining move.
+ */
+public class MoveOrdering {
+
+    private static final int transpositionMoveScore = 1 << 30;
+    private static final int captureScore = 1 << 28;
+    private static final int firstKillerScore = 1 << 27;
+    private static final int secondKillerScore = firstKillerScore - 1;
+    private static final int maxHistoryScore = 1 << 26;
+
+    private static final int[] victimValues = {0, 100, 300, 320, 500, 900, 1000}; // [unsigned piece id]
+
+    private final int[][] scores; // [ply][move index]
+    private final int[][] killers; // [ply][killer slot], only the initial position, final position and moved piece bits are kept
+    private final int[] history = new int[2 * 64 * 64]; // [color][initial position][final position]
+
+    private long cutoffs = 0;
+    private long firstMoveCutoffs = 0;
+
+    public MoveOrdering(int maxPly){
+        this.scores = new int[maxPly][IntegerChessBoard.MAX_MOVES];
+        this.killers = new int[maxPly][2];
+    }
+
+    /**
+     * Forgets the killers and ages the history before a new search
+     */
+    public void newSearch(){
+        for(int[] plyKillers : killers){
+            Arrays.fill(plyKillers, 0);
+        }
+        for(int i = 0; i < history.length; i++){
+            history[i] >>= 1;
+        }
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+    }
+
+    public void scoreMoves(int[] moves, int movesCount, int ply, int transpositionMove, boolean white){
+        int[] plyScores = scores[ply];
+        int[] plyKillers = killers[ply];
+        int colorOffset = white ? 0 : 4096;
+
+        for(int i = 0; i < movesCount; i++){
+            int move = moves[i];
+            if(move == transpositionMove){
+                plyScores[i] = transpositionMoveScore;
+            } else if(!isQuiet(move)){
+                int victim = (move & 0x00038000) >>> 15;
+                int attacker = (move & 0x00007000) >>> 12;
+                int promotion = move < 0 ? (move & 0x70000000) >>> 28 : 0;
+                plyScores[i] = captureScore + 8 * (victimValues[victim] + victimValues[promotion]) - attacker;
+            } else if((move & 0x7fff) == plyKillers[0]){
+                plyScores[i] = firstKillerScore;
+            } else if((move & 0x7fff) == plyKillers[1]){
+                plyScores[i] = secondKillerScore;
+            } else {
+                plyScores[i] = history[colorOffset | (move & 0x00000fff)];
+            }
+        }
+    }
+
+    /**
+     * Moves the best remaining move at the given index
+     * @return The move to search at this index
+     */
+    public int pickNextMove(int[] moves, int movesCount, int index, int ply){
+        int[] plyScores = scores[ply];
+
+        int bestIndex = index;
+        for(int i = index + 1; i < movesCount; i++){
+            if(plyScores[i] > plyScores[bestIndex]){
+                bestIndex = i;
+            }
+        }
+
+        int move = moves[bestIndex];
+        if(bestIndex != index){
+            moves[bestIndex] = moves[index];
+            moves[index] = move;
+            int score = plyScores[bestIndex];
+            plyScores[bestIndex] = plyScores[index];
+            plyScores[index] = score;
+        }
+        return move;
+    }
+
+    /**
+     * Should be called when a move causes a beta cutoff
+     * @param moveIndex The index of the move in the searched order
+     */
+    public void onBetaCutoff(int move, int moveIndex, int ply, int depth, boolean white){
+        cutoffs++;
+        if(moveIndex == 0){
+            firstMoveCutoffs++;
+        }
+
+        if(!isQuiet(move)) return;
+
+        int[] plyKillers = killers[ply];
+        if(plyKillers[0] != (move & 0x7fff)){
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move & 0x7fff;
+        }
+
+        int index = (white ? 0 : 4096) | (move & 0x00000fff);
+        history[index] += depth * depth;
+        if(history[index] >= maxHistoryScore){
+            for(int i = 0; i < history.length; i++){
+                history[i] >>= 1;
+            }
+        }
+    }
+
+    /**
+     * @return The share of the beta cutoffs of the current search that happened on the first searched move
+     */
+    public double getFirstMoveCutoffRate(){
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    private static boolean isQuiet(int move){
+        return move >= 0 && (move & 0x00038000) == 0;
+    }
+}
@@ -0,0 +1,139 @@
+package fr.tt54.chess.bots;
+
+import fr.tt54.chess.game.ChessPiece;
+import fr.tt54.chess.game.IntegerChessBoard;
+
+/**
+ * Pawn structure evaluation : doubled, isolated, backward and passed pawns. It only depends on the pawns, so it is cached
+ * by pawn hash in a {@link PawnHashTable}.
+ * An evaluation is packed in a long : the middlegame score (bits 0-15) and the endgame score (bits 16-31), both offset to
+ * be positive, then the files of the white passed pawns (bits 32-39) and the ones of the black passed pawns (bits 40-47).
+ * The scores are the ones of white
+ */
+public class PawnEvaluation {
+
+    private static final long fileA = 0x0101010101010101L;
+    private static final long fileH = fileA << 7;
+    private static final int scoreOffset = 1 << 15;
+
+    private static final int doubledMidgame = -10;
+    private static final int doubledEndgame = -20;
+    private static final int isolatedMidgame = -10;
+    private static final int isolatedEndgame = -15;
+    private static final int backwardMidgame = -8;
+    private static final int backwardEndgame = -10;
+    private static final int[] passedMidgame = {0, 5, 10, 15, 30, 50, 80, 0}; // [rank seen from the pawn owner]
+    private static final int[] passedEndgame = {0, 10, 20, 35, 60, 100, 150, 0};
+
+    private static final long[] adjacentFiles = new long[8]; // [column]
+    private static final long[] whiteFrontSpans = new long[64]; // [position], the squares in front of a white pawn on its file and on the adjacent files
+    private static final long[] blackFrontSpans = new long[64];
+
+    static {
+        for(int column = 0; column < 8; column++){
+            adjacentFiles[column] = (column > 0 ? fileA << (column - 1) : 0) | (column < 7 ? fileA << (column + 1) : 0);
+        }
+        for(int position = 0; position < 64; position++){
+            long files = adjacentFiles[IntegerChessBoard.getColumn(position)] | (fileA << IntegerChessBoard.getColumn(position));
+            int row = IntegerChessBoard.getRow(position);
+            whiteFrontSpans[position] = row == 7 ? 0 : files & (-1L << ((row + 1) * 8));
+            blackFrontSpans[position] = files & ((1L << (row * 8)) - 1);
+        }
+    }
+
+    /**
+     * @param pawnTable The cache of the evaluations, null to always compute it
+     * @return The packed evaluation of the pawn structure of the board
+     */
+    public static long evaluate(IntegerChessBoard board, PawnHashTable pawnTable){
+        if(pawnTable == null){
+            return evaluate(board.getPieceBitboard(ChessPiece.WHITE_PAWN), board.getPieceBitboard(ChessPiece.BLACK_PAWN));
+        }
+
+        long pawnHash = board.getPawnHash();
+        long data = pawnTable.probe(pawnHash);
+        if(data == -1){
+            data = evaluate(board.getPieceBitboard(ChessPiece.WHITE_PAWN), board.getPieceBitboard(ChessPiece.BLACK_PAWN));
+            pawnTable.store(pawnHash, data);
+        }
+        return data;
+    }
+
+    public static long evaluate(long whitePawns, long blackPawns){
+        long whiteAttacks = ((whitePawns << 7) & ~fileH) | ((whitePawns << 9) & ~fileA);
+        long blackAttacks = ((blackPawns >>> 7) & ~fileA) | ((blackPawns >>> 9) & ~fileH);
+
+        int midgame = 0;
+        int endgame = 0;
+        int whitePassedFiles = 0;
+        int blackPassedFiles = 0;
+
+        for(long pawns = whitePawns; pawns != 0; pawns &= pawns - 1){
+            int position = Long.numberOfTrailingZeros(pawns);
+            int column = IntegerChessBoard.getColumn(position);
+            int row = IntegerChessBoard.getRow(position);
+
+            if((whitePawns & (fileA << column) & whiteFrontSpans[position]) != 0){
+                // Only the pawns behind another one are doubled, so a file with two pawns counts once
+                midgame += doubledMidgame;
+                endgame += doubledEndgame;
+            }
+            if((whitePawns & adjacentFiles[column]) == 0){
+                midgame += isolatedMidgame;
+                endgame += isolatedEndgame;
+            } else if((whitePawns & adjacentFiles[column] & ~whiteFrontSpans[position]) == 0 && row < 7 && (blackAttacks & (1L << (position + 8))) != 0){
+                // No pawn can defend it and it cannot advance safely
+                midgame += backwardMidgame;
+                endgame += backwardEndgame;
+            }
+            if((blackPawns & whiteFrontSpans[position]) == 0 && (whitePawns & (fileA << column) & whiteFrontSpans[position]) == 0){
+                midgame += passedMidgame[row];
+                endgame += passedEndgame[row];
+                whitePassedFiles |= 1 << column;
+            }
+        }
+
+        for(long pawns = blackPawns; pawns != 0; pawns &= pawns - 1){
+            int position = Long.numberOfTrailingZeros(pawns);
+            int column = IntegerChessBoard.getColumn(position);
+            int row = IntegerChessBoard.getRow(position);
+
+            if((blackPawns & (fileA << column) & blackFrontSpans[position]) != 0){
+                midgame -= doubledMidgame;
+                endgame -= doubledEndgame;
+            }
+            if((blackPawns & adjacentFiles[column]) == 0){
+                midgame -= isolatedMidgame;
+                endgame -= isolatedEndgame;
+            } else if((blackPawns & adjacentFiles[column] & ~blackFrontSpans[position]) == 0 && row > 0 && (whiteAttacks & (1L << (position - 8))) != 0){
+                midgame -= backwardMidgame;
+                endgame -= backwardEndgame;
+            }
+            if((whitePawns & blackFrontSpans[position]) == 0 && (blackPawns & (fileA << column) & blackFrontSpans[position]) == 0){
+                midgame -= passedMidgame[7 - row];
+                endgame -= passedEndgame[7 - row];
+                blackPassedFiles |= 1 << column;
+            }
+        }
+
+        return (midgame + scoreOffset)
+                | ((long) (endgame + scoreOffset) << 16)
+                | ((long) whitePassedFiles << 32)
+                | ((long) blackPassedFiles << 40);
+    }
+
+    public static int getMidgameScore(long data){
+        return (int) (data & 0xffff) - scoreOffset;
+    }
+
+    public static int getEndgameScore(long data){
+        return (int) ((data >>> 16) & 0xffff) - scoreOffset;
+    }
+
+    /**
+     * @return A mask of the files of the passed pawns of a player, the bit 0 being the file a
+     */
+    public static int getPassedFiles(long data, boolean white){
+        return (int) (data >>> (white ? 32 : 40)) & 0xff;
+    }
+}
@@ -0,0 +1,63 @@
+package fr.tt54.chess.bots;
+
+/**
+ * Fixed size table caching the pawn structure evaluations by pawn hash, see {@link PawnEvaluation}. The pawns move in a
+ * small share of the moves, so most of the evaluated positions find their pawn structure here.
+ * Each entry uses two longs : the pawn hash xor the data, then the data. A table is owned by one search thread.
+ */
+public class PawnHashTable {
+
+    private final long[] entries;
+    private final int indexMask;
+
+    private long probes = 0;
+    private long hits = 0;
+
+    /**
+     * @param sizeMb The memory used by the table, rounded down to a power of two number of entries
+     */
+    public PawnHashTable(int sizeMb){
+        long entriesCount = Long.highestOneBit(Math.max(1L, sizeMb * 1024L * 1024L / 16L));
+        entriesCount = Math.min(entriesCount, 1L << 29); // Java arrays are limited to 2^31 elements
+        this.entries = new long[(int) entriesCount * 2];
+        this.indexMask = (int) entriesCount - 1;
+    }
+
+    /**
+     * @return The evaluation stored for this pawn hash, -1 if it is not in the table
+     */
+    public long probe(long pawnHash){
+        probes++;
+        int index = ((int) pawnHash & indexMask) << 1;
+        long data = entries[index + 1];
+        if(data != 0 && (entries[index] ^ data) == pawnHash){
+            hits++;
+            return data;
+        }
+        return -1;
+    }
+
+    /**
+     * @param data A pawn structure evaluation built by {@link PawnEvaluation}, never 0 nor negative
+     */
+    public void store(long pawnHash, long data){
+        int index = ((int) pawnHash & indexMask) << 1;
+        entries[index] = pawnHash ^ data;
+        entries[index + 1] = data;
+    }
+
+    public long getProbes(){
+        return probes;
+    }
+
+    public long getHits(){
+        return hits;
+    }
+
+    /**
+     * @return The share of the probes since the creation of the table that found the pawn structure
+     */
+    public double getHitRate(){
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
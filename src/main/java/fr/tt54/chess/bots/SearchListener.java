@@ -0,0 +1,21 @@
+package fr.tt54.chess.bots;
+
+/**
+ * Receives the progress of the searches of an {@link AlphaBetaBot}, from the thread searching the board
+ */
+public interface SearchListener {
+
+    /**
+     * Called at the end of each completed iteration of the iterative deepening
+     * @param eval The evaluation of the best move, for the player to move
+     * @param nodes The number of nodes visited by all the threads since the start of the search
+     * @param timeNs The time elapsed since the start of the search
+     * @param principalVariation The expected moves of the game, starting with the best move
+     */
+    void onIteration(int depth, int eval, long nodes, long timeNs, int[] principalVariation);
+
+    /**
+     * Called about once per second during the search
+     */
+    void onProgress(long nodes, long timeNs);
+}
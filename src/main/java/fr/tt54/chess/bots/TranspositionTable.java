@@ -0,0 +1,119 @@
+package fr.tt54.chess.bots;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size hash table storing the results of already searched positions.
+ * Each entry uses two longs : the key xor the data, then the data. An entry is only read if both longs give back the
+ * searched key, so an entry half written by another thread is seen as a miss and no lock is needed.
+ * The data packs the best move (bits 0-31), the score (bits 32-51), the depth (bits 52-58), the bound (bits 59-60) and the age (bits 61-63).
+ */
+public class TranspositionTable {
+
+    public static final int EXACT = 1;
+    public static final int LOWER_BOUND = 2; // The real score is at least the stored score
+    public static final int UPPER_BOUND = 3; // The real score is at most the stored score
+
+    private static final int scoreOffset = 1 << 19;
+
+    private final long[] entries;
+    private final int indexMask;
+    private int age = 0;
+
+    /**
+     * @param sizeMb The memory used by the table, rounded down to a power of two number of entries
+     */
+    public TranspositionTable(int sizeMb){
+        long entriesCount = Long.highestOneBit(Math.max(1L, sizeMb * 1024L * 1024L / 16L));
+        entriesCount = Math.min(entriesCount, 1L << 29); // Java arrays are limited to 2^31 elements
+        this.entries = new long[(int) entriesCount * 2];
+        this.indexMask = (int) entriesCount - 1;
+    }
+
+    /**
+     * @return The data stored for this key, 0 if the position is not in the table
+     */
+    public long probe(long key){
+        int index = ((int) key & indexMask) << 1;
+        long data = entries[index + 1];
+        if((entries[index] ^ data) == key){
+            return data;
+        }
+        return 0L;
+    }
+
+    /**
+     * Stores a search result. The entry already in the slot is kept if it comes from the current search and was searched deeper
+     */
+    public void store(long key, int depth, int bound, int score, int move){
+        int index = ((int) key & indexMask) << 1;
+        long previousData = entries[index + 1];
+        boolean samePosition = (entries[index] ^ previousData) == key;
+
+        if(previousData != 0 && !samePosition && getAge(previousData) == age && getDepth(previousData) > depth){
+            return;
+        }
+        if(samePosition && move == 0){
+            // We keep the best move of the previous search of this position
+            move = getMove(previousData);
+        }
+
+        long data = (move & 0xffffffffL)
+                | ((long) (score + scoreOffset) << 32)
+                | ((long) Math.min(depth, 127) << 52)
+                | ((long) bound << 59)
+                | ((long) age << 61);
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    /**
+     * Should be called before each new search, so the entries of the previous searches can be replaced
+     */
+    public void newSearch(){
+        age = (age + 1) & 0b111;
+    }
+
+    public void clear(){
+        Arrays.fill(entries, 0L);
+        age = 0;
+    }
+
+    /**
+     * @return The number of used entries in the first thousand entries
+     */
+    public int getUsagePermill(){
+        int used = 0;
+        int sample = Math.min(1000, indexMask + 1);
+        for(int i = 0; i < sample; i++){
+            if(entries[2 * i + 1] != 0){
+                used++;
+            }
+        }
+        return used * 1000 / sample;
+    }
+
+    public int getSizeMb(){
+        return (int) (entries.length * 8L / (1024 * 1024));
+    }
+
+    public static int getMove(long data){
+        return (int) data;
+    }
+
+    public static int getScore(long data){
+        return (int) ((data >>> 32) & 0xfffff) - scoreOffset;
+    }
+
+    public static int getDepth(long data){
+        return (int) ((data >>> 52) & 0x7f);
+    }
+
+    public static int getBound(long data){
+        return (int) ((data >>> 59) & 0b11);
+    }
+
+    private static int getAge(long data){
+        return (int) (data >>> 61);
+    }
+}
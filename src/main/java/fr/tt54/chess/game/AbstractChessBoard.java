@@ -4,7 +4,9 @@ import fr.tt54.chess.ChessMain;
 import fr.tt54.chess.FrameManager;
 import fr.tt54.chess.utils.Tuple;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public abstract class AbstractChessBoard {
@@ -44,6 +46,22 @@ public abstract class AbstractChessBoard {
         return count;
     }
 
+    /**
+     * @return The node count below each legal move, in the generation order, the moves being written as "e2e4" or "e7e8q"
+     */
+    public Map<String, Long> divide(int depth){
+        Map<String, Long> divide = new LinkedHashMap<>();
+        for(ChessMove move : getAllowedMoves()){
+            playMove(move);
+            long moveCount = perft(depth - 1, -1);
+            undoMove(move);
+
+            String extra = move.isPromotion() ? move.promotePiece().getFenChar() + "" : "";
+            divide.put((getPositionString(move.initialRow(), move.initialColumn()) + getPositionString(move.finalRow(), move.finalColumn()) + extra).toLowerCase(), moveCount);
+        }
+        return divide;
+    }
+
     public long evaluatePerftTime(int depth, int printDepth){
         long time = System.currentTimeMillis();
         System.out.println("Perft result : " + perft(depth, printDepth));
@@ -0,0 +1,222 @@
+package fr.tt54.chess.game;
+
+/**
+ * Precomputed attack tables for bitboards, where the bit n of a word represents the position n of {@link IntegerChessBoard}.
+ * Sliding pieces use "fancy" magic bitboards : the relevant occupancy of a square is multiplied by a magic number and
+ * shifted to get an index in a shared attack table. Every table is built once when the class is loaded.
+ */
+public class BitboardAttacks {
+
+    private static final int[][] rookDirections = new int[][] {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] bishopDirections = new int[][] {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+    private static final int[][] knightMoves = new int[][] {{2, 1}, {2, -1}, {-2, 1}, {-2, -1}, {1, 2}, {1, -2}, {-1, 2}, {-1, -2}};
+    private static final int[][] kingMoves = new int[][] {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    // Seeds giving quickly a magic for each row with the generator below
+    private static final long[] magicSeeds = new long[] {728, 10316, 55013, 32803, 12281, 15100, 16645, 255};
+
+    private static final long[] knightAttacks = new long[64];
+    private static final long[] kingAttacks = new long[64];
+    private static final long[][] pawnAttacks = new long[2][64]; // [white ? 0 : 1][position]
+    private static final long[][] squaresBetween = new long[64][64];
+
+    private static final long[] rookEmptyBoardAttacks = new long[64];
+    private static final long[] bishopEmptyBoardAttacks = new long[64];
+
+    private static final long[] rookMasks = new long[64];
+    private static final long[] rookMagics = new long[64];
+    private static final int[] rookShifts = new int[64];
+    private static final int[] rookOffsets = new int[64];
+    private static final long[] rookAttacks = new long[102400];
+
+    private static final long[] bishopMasks = new long[64];
+    private static final long[] bishopMagics = new long[64];
+    private static final int[] bishopShifts = new int[64];
+    private static final int[] bishopOffsets = new int[64];
+    private static final long[] bishopAttacks = new long[5248];
+
+    private static long randomState;
+
+    static {
+        for(int position = 0; position < 64; position++){
+            knightAttacks[position] = getJumpAttacks(position, knightMoves);
+            kingAttacks[position] = getJumpAttacks(position, kingMoves);
+            pawnAttacks[0][position] = getJumpAttacks(position, new int[][] {{1, 1}, {1, -1}});
+            pawnAttacks[1][position] = getJumpAttacks(position, new int[][] {{-1, 1}, {-1, -1}});
+            rookEmptyBoardAttacks[position] = getSlidingAttacks(position, 0L, rookDirections);
+            bishopEmptyBoardAttacks[position] = getSlidingAttacks(position, 0L, bishopDirections);
+        }
+
+        initMagics(rookDirections, rookMasks, rookMagics, rookShifts, rookOffsets, rookAttacks);
+        initMagics(bishopDirections, bishopMasks, bishopMagics, bishopShifts, bishopOffsets, bishopAttacks);
+
+        for(int from = 0; from < 64; from++){
+            for(int to = 0; to < 64; to++){
+                if((rookEmptyBoardAttacks[from] & (1L << to)) != 0){
+                    squaresBetween[from][to] = getRookAttacks(from, 1L << to) & getRookAttacks(to, 1L << from);
+                } else if((bishopEmptyBoardAttacks[from] & (1L << to)) != 0){
+                    squaresBetween[from][to] = getBishopAttacks(from, 1L << to) & getBishopAttacks(to, 1L << from);
+                }
+            }
+        }
+    }
+
+    public static long getRookAttacks(int position, long occupiedSquares){
+        return rookAttacks[rookOffsets[position] + (int) (((occupiedSquares & rookMasks[position]) * rookMagics[position]) >>> rookShifts[position])];
+    }
+
+    public static long getBishopAttacks(int position, long occupiedSquares){
+        return bishopAttacks[bishopOffsets[position] + (int) (((occupiedSquares & bishopMasks[position]) * bishopMagics[position]) >>> bishopShifts[position])];
+    }
+
+    public static long getQueenAttacks(int position, long occupiedSquares){
+        return getRookAttacks(position, occupiedSquares) | getBishopAttacks(position, occupiedSquares);
+    }
+
+    /**
+     * @param unsignedPieceId The unsigned id of a bishop, a rook or a queen
+     * @return The squares attacked by this sliding piece with the given occupancy
+     */
+    public static long getSlidingAttacks(int unsignedPieceId, int position, long occupiedSquares){
+        return switch (unsignedPieceId){
+            case 3 -> getBishopAttacks(position, occupiedSquares);
+            case 4 -> getRookAttacks(position, occupiedSquares);
+            default -> getQueenAttacks(position, occupiedSquares);
+        };
+    }
+
+    public static long getRookEmptyBoardAttacks(int position){
+        return rookEmptyBoardAttacks[position];
+    }
+
+    public static long getBishopEmptyBoardAttacks(int position){
+        return bishopEmptyBoardAttacks[position];
+    }
+
+    public static long getKnightAttacks(int position){
+        return knightAttacks[position];
+    }
+
+    public static long getKingAttacks(int position){
+        return kingAttacks[position];
+    }
+
+    public static long getPawnAttacks(boolean white, int position){
+        return pawnAttacks[white ? 0 : 1][position];
+    }
+
+    /**
+     * @return The squares strictly between two positions if they are on the same row, column or diagonal, 0 otherwise
+     */
+    public static long getSquaresBetween(int from, int to){
+        return squaresBetween[from][to];
+    }
+
+    private static long getJumpAttacks(int position, int[][] jumps){
+        int row = IntegerChessBoard.getRow(position);
+        int column = IntegerChessBoard.getColumn(position);
+
+        long attacks = 0L;
+        for(int[] jump : jumps){
+            int targetRow = row + jump[0];
+            int targetColumn = column + jump[1];
+            if(IntegerChessBoard.isInBoard(targetRow, targetColumn)){
+                attacks |= 1L << IntegerChessBoard.getPosition(targetRow, targetColumn);
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Slow ray walk, only used to fill the tables
+     */
+    private static long getSlidingAttacks(int position, long occupiedSquares, int[][] directions){
+        int row = IntegerChessBoard.getRow(position);
+        int column = IntegerChessBoard.getColumn(position);
+
+        long attacks = 0L;
+        for(int[] direction : directions){
+            int targetRow = row + direction[0];
+            int targetColumn = column + direction[1];
+            while(IntegerChessBoard.isInBoard(targetRow, targetColumn)){
+                long target = 1L << IntegerChessBoard.getPosition(targetRow, targetColumn);
+                attacks |= target;
+                if((occupiedSquares & target) != 0){
+                    break;
+                }
+                targetRow += direction[0];
+                targetColumn += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    private static void initMagics(int[][] directions, long[] masks, long[] magics, int[] shifts, int[] offsets, long[] table){
+        long[] occupancies = new long[4096];
+        long[] references = new long[4096];
+        int[] epochs = new int[4096];
+        int epoch = 0;
+        int offset = 0;
+
+        for(int position = 0; position < 64; position++){
+            // The squares on the board edges never change the attacks, except the ones on the row or the column of the piece
+            int row = IntegerChessBoard.getRow(position);
+            int column = IntegerChessBoard.getColumn(position);
+            long edges = ((0x00000000000000FFL | 0xFF00000000000000L) & ~(0xFFL << (8 * row)))
+                    | ((0x0101010101010101L | 0x8080808080808080L) & ~(0x0101010101010101L << column));
+
+            long mask = getSlidingAttacks(position, 0L, directions) & ~edges;
+            int bits = Long.bitCount(mask);
+            int size = 1 << bits;
+
+            masks[position] = mask;
+            shifts[position] = 64 - bits;
+            offsets[position] = offset;
+
+            // Enumerating all the subsets of the mask with the Carry-Rippler trick
+            long subset = 0L;
+            for(int i = 0; i < size; i++){
+                occupancies[i] = subset;
+                references[i] = getSlidingAttacks(position, subset, directions);
+                subset = (subset - mask) & mask;
+            }
+
+            randomState = magicSeeds[row];
+            long magic;
+            boolean found;
+            do {
+                do {
+                    // Magics with few set bits are found faster
+                    magic = nextRandom() & nextRandom() & nextRandom();
+                } while(Long.bitCount((mask * magic) >>> 56) < 6);
+
+                // We check that the magic does not map two occupancies with different attacks to the same index
+                epoch++;
+                found = true;
+                for(int i = 0; i < size; i++){
+                    int index = (int) ((occupancies[i] * magic) >>> shifts[position]);
+                    if(epochs[index] < epoch){
+                        epochs[index] = epoch;
+                        table[offset + index] = references[i];
+                    } else if(table[offset + index] != references[i]){
+                        found = false;
+                        break;
+                    }
+                }
+            } while(!found);
+
+            magics[position] = magic;
+            offset += size;
+        }
+    }
+
+    /**
+     * xorshift64* generator, so the magics are the same at each launch
+     */
+    private static long nextRandom(){
+        randomState ^= randomState >>> 12;
+        randomState ^= randomState << 25;
+        randomState ^= randomState >>> 27;
+        return randomState * 2685821657736338717L;
+    }
+}
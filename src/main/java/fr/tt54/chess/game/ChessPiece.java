@@ -64,18 +64,18 @@ public enum ChessPiece{
     }
 
     private static final Map<Character, ChessPiece> pieceMap = new HashMap<>();
-    private static final Map<Integer, ChessPiece> pieceIdMap = new HashMap<>();
+    private static final ChessPiece[] pieceIds = new ChessPiece[13]; // [id + 6], null for the empty square
     static {
         for(ChessPiece piece : values()){
             pieceMap.put(piece.fenChar, piece);
-            pieceIdMap.put(piece.id, piece);
+            pieceIds[piece.id + 6] = piece;
         }
     }
     public static ChessPiece getPiece(char c){
         return pieceMap.get(c);
     }
     public static ChessPiece getPiece(int id){
-        return pieceIdMap.get(id);
+        return id < -6 || id > 6 ? null : pieceIds[id + 6];
     }
 
     public static ChessPiece[] getBlackPieces(){
@@ -1,15 +1,17 @@
 package fr.tt54.chess.game;
 
 import fr.tt54.chess.ChessMain;
+import fr.tt54.chess.nnue.NeuralAccumulator;
+import fr.tt54.chess.nnue.NeuralNetwork;
 import fr.tt54.chess.utils.Tuple;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntToLongFunction;
 
 public class IntegerChessBoard {
 
-    private static final int[][] standardMoves = new int[][] {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
-    private static final int[][] knightMoves = new int[][] {{2, 1}, {2, -1}, {-2, 1}, {-2, -1}, {1, 2}, {1, -2}, {-1, 2}, {-1, -2}};
-
+    public static final int MAX_MOVES = 256; // No position has more than 218 legal moves
 
     private int moveCount;
     private final int[] board = new int[64]; // [position]
@@ -17,15 +19,37 @@ public class IntegerChessBoard {
     private int castles = 0; // 4 bits int : 0000 with this order: white king side castle, ..., black queen side castle
     private int enPassant;
     private int halfMovesRule;
-
-    private final Map<ChessPiece, Set<Integer>> piecesPositions = new HashMap<>();
-
-    private PartialIntegerList[] squaresAttackers;
-    private int[] pins;
-    private int[] checks;
+    private long hash; // Zobrist hash of the position, updated by playMove and undoMove
+    private long pawnHash; // Zobrist hash of the pawns only, the key of the pawn structure evaluation
+    // Sums of the piece-square values of the pieces, see PieceSquareTables, and sum of their phase weights
+    private int midgameScore;
+    private int endgameScore;
+    private int gamePhase;
+    private NeuralAccumulator accumulator; // Only updated when a neural network is attached to the board
+
+    private final long[] piecesBitboards = new long[13]; // [piece id + 6], one occupancy word per piece type and color
+    private long whitePieces;
+    private long blackPieces;
+    private long occupiedSquares;
+
+    // Filled at each move generation for the opponent of the current player
+    private long attackedSquares;
+    private long checkers; // The opponent pieces giving check
+    private long checkRay; // The squares between the king and a sliding piece giving check
+    private long pinnedPieces;
+    private final long[] pinRays = new long[64]; // [pinned piece position], only valid for the positions in pinnedPieces
+    // Filled at each move generation for the current player, read by the evaluation with the data above, see fillAttackData()
+    private long playerAttackedSquares;
+    private long opponentPinnedPieces; // The opponent pieces pinned on their king by the current player
+    private final long[] pieceAttacks = new long[64]; // [position], the squares attacked by the piece on this position, for both players
+    private boolean attackDataValid; // Cleared by playMove, undoMove and loadFen
     private int whiteKingPosition;
     private int blackKingPosition;
 
+    private int[][] perftMoveBuffers; // [remaining depth][move index]
+    private final long[] checkSquares = new long[7]; // [unsigned piece id], filled by the perft with statistics
+    private final long[] discoveryRays = new long[64]; // [position], filled by the perft with statistics
+
     public IntegerChessBoard(){
         this("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
     }
@@ -34,96 +58,199 @@ public class IntegerChessBoard {
         loadFen(fen);
     }
 
+    /**
+     * Copies the position of another board, so it can be searched by another thread
+     */
+    public IntegerChessBoard(IntegerChessBoard other){
+        this.moveCount = other.moveCount;
+        System.arraycopy(other.board, 0, this.board, 0, 64);
+        this.whiteToPlay = other.whiteToPlay;
+        this.castles = other.castles;
+        this.enPassant = other.enPassant;
+        this.halfMovesRule = other.halfMovesRule;
+        this.hash = other.hash;
+        this.pawnHash = other.pawnHash;
+        this.midgameScore = other.midgameScore;
+        this.endgameScore = other.endgameScore;
+        this.gamePhase = other.gamePhase;
+        this.accumulator = other.accumulator == null ? null : new NeuralAccumulator(other.accumulator);
+        System.arraycopy(other.piecesBitboards, 0, this.piecesBitboards, 0, 13);
+        this.whitePieces = other.whitePieces;
+        this.blackPieces = other.blackPieces;
+        this.occupiedSquares = other.occupiedSquares;
+        this.whiteKingPosition = other.whiteKingPosition;
+        this.blackKingPosition = other.blackKingPosition;
+    }
+
 
+    /**
+     * Builds a list of the legal moves. This allocates the list at each call, prefer {@link #fillAllowedMoves(int[])} in searches
+     * @return The legal moves of the current player
+     */
     public List<Integer> getAllowedMoves(){
-        squaresAttackers = new PartialIntegerList[64];
-        pins = new int[64];
-        checks = new int[64];
-
-        List<Integer> attackerMoves = new ArrayList<>();
-        List<Integer> allowedMoves = new ArrayList<>();
-
-        fillPseudoLegalMoves(attackerMoves, !whiteToPlay, true);
-
-        PartialIntegerList kingAttackers = getKingAttackers(whiteToPlay);
-        if(kingAttackers == null){
-            List<Integer> validMoves = new ArrayList<>();
-
-            for (ChessPiece piece : ChessPiece.getColoredPieces(whiteToPlay)) {
-                for (int position : getPiecePositions(piece)) {
-                    switch (piece){
-                        case BLACK_BISHOP, BLACK_ROOK, BLACK_QUEEN, WHITE_BISHOP, WHITE_ROOK, WHITE_QUEEN -> addStandardMoves(allowedMoves, piece, position, false);
-                        case BLACK_KNIGHT, WHITE_KNIGHT -> addKnightMoves(allowedMoves, piece, position, false);
-                        case BLACK_PAWN, WHITE_PAWN -> addPawnMoves(allowedMoves, piece, position, false);
-                        case BLACK_KING, WHITE_KING -> fillLegalKingMoves(validMoves, piece, position, true);
-                    }
-                }
-            }
+        int[] moves = new int[MAX_MOVES];
+        int count = fillAllowedMoves(moves);
 
-            for(int move : allowedMoves){
-                if(isEnPassantMove(move)){
-                    if(isLegalMove(move)){
-                        validMoves.add(move);
-                    }
-                } else if(isMoveValidWithPins(move)){
-                    validMoves.add(move);
-                }
-            }
+        List<Integer> allowedMoves = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            allowedMoves.add(moves[i]);
+        }
+        return allowedMoves;
+    }
 
-            allowedMoves = validMoves;
-        } else if(kingAttackers.size() == 1){
-            int attackerPos = kingAttackers.getElement(0);
-            ChessPiece attacker = getPiece(attackerPos);
+    /**
+     * Writes the legal moves of the current player at the beginning of the given buffer, without allocating anything.
+     * Searches should keep one buffer of {@link #MAX_MOVES} moves per ply, see {@link #createMoveBuffers(int)}
+     * @param moves The buffer to fill
+     * @return The number of legal moves written in the buffer
+     */
+    public int fillAllowedMoves(int[] moves){
+        return fillMoves(moves, false);
+    }
 
-            List<Integer> validMoves = new ArrayList<>();
+    /**
+     * Writes only the legal captures (including en passant) and promotions of the current player, without generating the quiet moves.
+     * Used by the quiescence search
+     * @param moves The buffer to fill
+     * @return The number of moves written in the buffer
+     */
+    public int fillCaptureMoves(int[] moves){
+        return fillMoves(moves, true);
+    }
 
-            for (ChessPiece piece : ChessPiece.getColoredPieces(whiteToPlay)) {
-                for (int position : getPiecePositions(piece)) {
-                    switch (piece){
-                        case BLACK_BISHOP, BLACK_ROOK, BLACK_QUEEN, WHITE_BISHOP, WHITE_ROOK, WHITE_QUEEN -> addStandardMoves(allowedMoves, piece, position, false);
-                        case BLACK_KNIGHT, WHITE_KNIGHT -> addKnightMoves(allowedMoves, piece, position, false);
-                        case BLACK_PAWN, WHITE_PAWN -> addPawnMoves(allowedMoves, piece, position, false);
-                        case BLACK_KING, WHITE_KING -> fillLegalKingMoves(validMoves, piece, position, false);
-                    }
-                }
-            }
+    private int fillMoves(int[] moves, boolean capturesOnly){
+        fillAttackedSquares(!whiteToPlay);
+        playerAttackedSquares = 0L;
+        opponentPinnedPieces = 0L;
 
-            for(int move : allowedMoves){
-                if(getMoveFinalPosition(move) == attackerPos && isMoveValidWithPins(move)){
-                    validMoves.add(move);
-                } else if(getMoveEnPassantPosition(move) == attackerPos && isLegalMove(move)){
-                    validMoves.add(move);
-                } else if(attacker.canCheckBeBlocked() && isMoveValidWithPins(move) && isMoveValidWithChecks(move)){
-                    validMoves.add(move);
-                }
-            }
+        int sign = whiteToPlay ? 1 : -1;
+        int count = 0;
 
-            allowedMoves = validMoves;
+        int checkersCount = Long.bitCount(checkers);
+        if(checkersCount < 2){
+            // Without check, every square is allowed. With a single check, we should capture the attacker or block the check
+            long allowedTargets = checkersCount == 0 ? ~getColorBitboard(whiteToPlay) : checkers | checkRay;
+            count = fillMovesWithoutKing(moves, count, whiteToPlay, allowedTargets, capturesOnly);
         } else {
-            fillLegalKingMoves(allowedMoves, whiteToPlay ? ChessPiece.WHITE_KING : ChessPiece.BLACK_KING, whiteToPlay ? whiteKingPosition : blackKingPosition, false);
+            // Only the king can move, but the evaluation still reads the attacks of the other pieces
+            fillPlayerAttacksWithoutKing(whiteToPlay);
         }
+        count = fillLegalKingMoves(moves, count, ChessPiece.getPiece(6 * sign), whiteToPlay ? whiteKingPosition : blackKingPosition, checkersCount == 0 && !capturesOnly,
+                capturesOnly ? getColorBitboard(!whiteToPlay) : ~0L);
 
-        return allowedMoves;
+        attackDataValid = true;
+        return count;
     }
 
-    private boolean isMoveValidWithChecks(int move) {
-        int finalPosition = (move & 0x00000fc0) >>> 6;
-        return checks[finalPosition] > 0;
+    /**
+     * Counts the legal moves of the current player without writing them nor playing them, except the en passant captures.
+     * Used at the last ply of the perfts
+     * @return The number of legal moves
+     */
+    public int countAllowedMoves(){
+        fillAttackedSquares(!whiteToPlay);
+
+        int count = 0;
+        int checkersCount = Long.bitCount(checkers);
+        if(checkersCount < 2){
+            long allowedTargets = checkersCount == 0 ? ~getColorBitboard(whiteToPlay) : checkers | checkRay;
+            count = countMovesWithoutKing(whiteToPlay, allowedTargets);
+        }
+
+        int kingPosition = whiteToPlay ? whiteKingPosition : blackKingPosition;
+        count += Long.bitCount(BitboardAttacks.getKingAttacks(kingPosition) & ~getColorBitboard(whiteToPlay) & ~attackedSquares);
+        if(checkersCount == 0){
+            if(canCastle(whiteToPlay, true)) count++;
+            if(canCastle(whiteToPlay, false)) count++;
+        }
+        return count;
     }
 
-    private boolean isMoveValidWithPins(int move){
-        int initialPosition = move & 0x00000003f;
-        int finalPosition = (move & 0x00000fc0) >>> 6;
+    private int countMovesWithoutKing(boolean white, long allowedTargets){
+        int sign = white ? 1 : -1;
+        int count = 0;
+        for (int unsignedId = 1; unsignedId <= 5; unsignedId++) {
+            for (long positions = piecesBitboards[sign * unsignedId + 6]; positions != 0; positions &= positions - 1) {
+                int position = Long.numberOfTrailingZeros(positions);
+                long targets = (pinnedPieces & (1L << position)) != 0 ? allowedTargets & pinRays[position] : allowedTargets;
+                switch (unsignedId){
+                    case 3, 4, 5 -> count += Long.bitCount(BitboardAttacks.getSlidingAttacks(unsignedId, position, occupiedSquares) & targets);
+                    case 2 -> count += Long.bitCount(BitboardAttacks.getKnightAttacks(position) & targets);
+                    case 1 -> count += countPawnMoves(white, position, targets);
+                }
+            }
+        }
+        return count;
+    }
 
-        int pinValue = pins[initialPosition];
-        if(pinValue > 0){
-            return pins[finalPosition] == pinValue;
+    private int countPawnMoves(boolean white, int position, long allowedTargets){
+        long pawn = 1L << position;
+        long push = (white ? pawn << 8 : pawn >>> 8) & ~occupiedSquares;
+        long doublePush = (white ? (push << 8) & 0x00000000FF000000L : (push >>> 8) & 0x000000FF00000000L) & ~occupiedSquares;
+        long targets = ((push | doublePush) | (BitboardAttacks.getPawnAttacks(white, position) & getColorBitboard(!white))) & allowedTargets;
+
+        // Each promotion counts as 4 moves
+        long promotionRow = white ? 0xFF00000000000000L : 0x00000000000000FFL;
+        int count = Long.bitCount(targets) + 3 * Long.bitCount(targets & promotionRow);
+
+        // En passant captures can discover a check on the row, so they are played to check if they are legal
+        if(enPassant > 0 && getRow(enPassant) == getRow(position) && Math.abs(getColumn(enPassant) - getColumn(position)) == 1){
+            ChessPiece piece = ChessPiece.getPiece(white ? 1 : -1);
+            int move = getEnPassantMove(position, enPassant + (white ? 8 : -8), piece, getPiece(this.enPassant));
+            if(isLegalMove(move)){
+                count++;
+            }
         }
-        return true;
+        return count;
     }
 
-    private PartialIntegerList getKingAttackers(boolean white){
-        return squaresAttackers[white ? whiteKingPosition : blackKingPosition];
+    /**
+     * @param plies The maximal number of plies of the search
+     * @return One move buffer per ply, to use with {@link #fillAllowedMoves(int[])}
+     */
+    public static int[][] createMoveBuffers(int plies){
+        return new int[plies][MAX_MOVES];
+    }
+
+    /**
+     * Computes the attacks of both players, their pins and the checks, unless the last move generation of this position already did.
+     * The evaluation calls it before reading the attack data, so it reuses the work of the move generation most of the time
+     */
+    public void fillAttackData(){
+        if(attackDataValid) return;
+
+        fillAttackedSquares(!whiteToPlay);
+        playerAttackedSquares = 0L;
+        opponentPinnedPieces = 0L;
+        fillPlayerAttacksWithoutKing(whiteToPlay);
+        int kingPosition = whiteToPlay ? whiteKingPosition : blackKingPosition;
+        pieceAttacks[kingPosition] = BitboardAttacks.getKingAttacks(kingPosition);
+        playerAttackedSquares |= pieceAttacks[kingPosition];
+        attackDataValid = true;
+    }
+
+    /**
+     * Should be called after {@link #fillAttackData()}
+     * @return The squares attacked by the pieces of the given player
+     */
+    public long getAttackedSquares(boolean white){
+        return white == whiteToPlay ? playerAttackedSquares : attackedSquares;
+    }
+
+    /**
+     * Should be called after {@link #fillAttackData()}
+     * @return The squares attacked by the piece on this position, only meaningful for an occupied position
+     */
+    public long getPieceAttacks(int position){
+        return pieceAttacks[position];
+    }
+
+    /**
+     * Should be called after {@link #fillAttackData()}
+     * @return The pieces of the given player pinned on their king by an opponent sliding piece
+     */
+    public long getPinnedPieces(boolean white){
+        return white == whiteToPlay ? pinnedPieces : opponentPinnedPieces;
     }
 
     /**
@@ -131,126 +258,144 @@ public class IntegerChessBoard {
      * @return If the current player is in check
      */
     public boolean isKingInCheck(){
-        PartialIntegerList attackers = getKingAttackers(whiteToPlay);
-        return attackers != null && attackers.size() > 0;
+        return checkers != 0;
     }
 
-    private void fillPseudoLegalMoves(List<Integer> moves, boolean white, boolean shouldFillAttackedSquares){
-        for (ChessPiece piece : ChessPiece.getColoredPieces(white)) {
-            for (int position : getPiecePositions(piece)) {
-                switch (piece){
-                    case BLACK_BISHOP, BLACK_ROOK, BLACK_QUEEN, WHITE_BISHOP, WHITE_ROOK, WHITE_QUEEN -> addStandardMoves(moves, piece, position, shouldFillAttackedSquares);
-                    case BLACK_KNIGHT, WHITE_KNIGHT -> addKnightMoves(moves, piece, position, shouldFillAttackedSquares);
-                    case BLACK_PAWN, WHITE_PAWN -> addPawnMoves(moves, piece, position, shouldFillAttackedSquares);
-                    case BLACK_KING, WHITE_KING -> addPseudoLegalKingMovesWithoutCastles(moves, piece, position, shouldFillAttackedSquares);
+    /**
+     * Fills the squares attacked by the given player, its checks and its pins on the opponent pieces
+     */
+    private void fillAttackedSquares(boolean white){
+        attackedSquares = 0L;
+        checkers = 0L;
+        checkRay = 0L;
+        pinnedPieces = 0L;
+
+        int sign = white ? 1 : -1;
+        long opponentKing = 1L << (white ? blackKingPosition : whiteKingPosition);
+        for (int unsignedId = 1; unsignedId <= 6; unsignedId++) {
+            for (long positions = piecesBitboards[sign * unsignedId + 6]; positions != 0; positions &= positions - 1) {
+                int position = Long.numberOfTrailingZeros(positions);
+                long attacks = switch (unsignedId){
+                    case 3, 4, 5 -> addSlidingChecksAndPins(white, unsignedId, position);
+                    case 2 -> BitboardAttacks.getKnightAttacks(position);
+                    case 1 -> BitboardAttacks.getPawnAttacks(white, position);
+                    default -> BitboardAttacks.getKingAttacks(position);
+                };
+                if((attacks & opponentKing) != 0){
+                    checkers |= 1L << position;
                 }
+                pieceAttacks[position] = attacks;
+                attackedSquares |= attacks;
             }
         }
     }
 
-    private void addStandardMoves(List<Integer> allowedMoves, ChessPiece piece, int position, boolean shouldFillAttackedSquares){
-        int row = getRow(position);
-        int column = getColumn(position);
-
-        for(int i = piece.getBeginStandardOffset(); i <= piece.getEndStandardOffset(); i++){
-            int targetRow = row + standardMoves[i][0];
-            int targetColumn = column + standardMoves[i][1];
-
-            while (isInBoard(targetRow, targetColumn)) {
-                int targetPosition = getPosition(targetRow, targetColumn);
-                ChessPiece targetPiece = getPiece(targetPosition);
-                if(shouldFillAttackedSquares) {
-                    addAttackedSquare(targetPosition, position);
-                }
-
-                if(targetPiece != null){
-                    if(targetPiece.isWhite() != piece.isWhite()){
-                        allowedMoves.add(getStandardMove(position, targetPosition, piece, targetPiece));
-
-                        if(targetPiece == ChessPiece.getKing(!piece.isWhite()) && shouldFillAttackedSquares){
-                            // This piece attacks the king : this is a check
-                            int checkRow = targetRow + standardMoves[i][0];
-                            int checkColumn = targetColumn + standardMoves[i][1];
-
-                            if(isInBoard(checkRow, checkColumn)){
-                                // We mark the square behind the king as an attacked square
-                                addAttackedSquare(getPosition(checkRow, checkColumn), position);
-                            }
-                            checkRow = targetRow;
-                            checkColumn = targetColumn;
-
-                            while(checkRow != row || checkColumn != column){
-                                int checkPosition = getPosition(checkRow, checkColumn);
-                                checks[checkPosition] = position + 1; // We add +1 to keep 0 as a non-checked square
-                                checkRow -= standardMoves[i][0];
-                                checkColumn -= standardMoves[i][1];
-                            }
-                        }
-                    }
-                    break;
-                }
-
-                allowedMoves.add(getStandardMove(position, targetPosition, piece, targetPiece));
-
-                targetRow += standardMoves[i][0];
-                targetColumn += standardMoves[i][1];
+    /**
+     * Marks the check ray or the pin created by a sliding piece
+     * @return The squares attacked by this piece, including the ones behind the opponent king
+     */
+    private long addSlidingChecksAndPins(boolean white, int unsignedPieceId, int position){
+        int opponentKingPosition = white ? blackKingPosition : whiteKingPosition;
+        long opponentKing = 1L << opponentKingPosition;
+
+        long attacks = BitboardAttacks.getSlidingAttacks(unsignedPieceId, position, occupiedSquares);
+
+        long between = BitboardAttacks.getSquaresBetween(position, opponentKingPosition);
+        if(between != 0 && (BitboardAttacks.getSlidingAttacks(unsignedPieceId, position, 0L) & opponentKing) != 0){
+            long blockers = between & occupiedSquares;
+            if(blockers == 0){
+                // This piece attacks the king : this is a check
+                checkRay |= between;
+            } else if((blockers & (blockers - 1)) == 0 && (blockers & getColorBitboard(white)) == 0){
+                // The only piece between this piece and the king is an opponent piece : there's a pin
+                pinnedPieces |= blockers;
+                pinRays[Long.numberOfTrailingZeros(blockers)] = between | (1L << position);
             }
+        }
 
-            if(shouldFillAttackedSquares && isInBoard(targetRow, targetColumn) && getPiece(targetRow, targetColumn).isWhite() != piece.isWhite()){
-                // This targeted piece could be pinned
-
-                targetRow += standardMoves[i][0];
-                targetColumn += standardMoves[i][1];
-                while(isInBoard(targetRow, targetColumn)){
-                    ChessPiece targetPiece = getPiece(targetRow, targetColumn);
-                    if(targetPiece != null){
-                        if(targetPiece == ChessPiece.getKing(!piece.isWhite())){
-                            // There's a pin
+        if((attacks & opponentKing) != 0){
+            // The squares behind the king are also attacked : the king cannot escape a check along the attacking ray
+            return BitboardAttacks.getSlidingAttacks(unsignedPieceId, position, occupiedSquares & ~opponentKing);
+        }
+        return attacks;
+    }
 
-                            // We should add the list of squares pinned by this piece
-                            while(targetRow != row || targetColumn != column){
-                                targetRow -= standardMoves[i][0];
-                                targetColumn -= standardMoves[i][1];
-                                int targetPosition = getPosition(targetRow, targetColumn);
-                                pins[targetPosition] = position + 1; // We add +1 to keep 0 as a non-pinned square
-                            }
-                        }
-                        break;
-                    }
-                    targetRow += standardMoves[i][0];
-                    targetColumn += standardMoves[i][1];
+    /**
+     * Also records the attacks of the pieces and the opponent pieces they pin, see {@link #fillPlayerAttacksWithoutKing(boolean)}
+     */
+    private int fillMovesWithoutKing(int[] moves, int count, boolean white, long allowedTargets, boolean capturesOnly){
+        int sign = white ? 1 : -1;
+        long captureTargets = capturesOnly ? getColorBitboard(!white) : ~0L;
+        for (int unsignedId = 1; unsignedId <= 5; unsignedId++) {
+            ChessPiece piece = ChessPiece.getPiece(sign * unsignedId);
+            for (long positions = piecesBitboards[sign * unsignedId + 6]; positions != 0; positions &= positions - 1) {
+                int position = Long.numberOfTrailingZeros(positions);
+                long targets = (pinnedPieces & (1L << position)) != 0 ? allowedTargets & pinRays[position] : allowedTargets;
+                long attacks = computePieceAttacks(white, unsignedId, position);
+                pieceAttacks[position] = attacks;
+                playerAttackedSquares |= attacks;
+                if(unsignedId == 1){
+                    count = addPawnMoves(moves, count, piece, position, targets, capturesOnly);
+                } else {
+                    count = addTargetMoves(moves, count, piece, position, attacks & targets & captureTargets);
                 }
             }
         }
+        return count;
     }
 
-    private void addKnightMoves(List<Integer> allowedMoves, ChessPiece piece, int position, boolean shouldFillAttackedSquares){
-        int row = getRow(position);
-        int column = getColumn(position);
-
-        for (int[] knightMove : knightMoves) {
-            int targetRow = row + knightMove[0];
-            int targetColumn = column + knightMove[1];
+    /**
+     * Records the attacks of the pieces of the current player other than the king, and the opponent pieces they pin
+     */
+    private void fillPlayerAttacksWithoutKing(boolean white){
+        int sign = white ? 1 : -1;
+        for (int unsignedId = 1; unsignedId <= 5; unsignedId++) {
+            for (long positions = piecesBitboards[sign * unsignedId + 6]; positions != 0; positions &= positions - 1) {
+                int position = Long.numberOfTrailingZeros(positions);
+                long attacks = computePieceAttacks(white, unsignedId, position);
+                pieceAttacks[position] = attacks;
+                playerAttackedSquares |= attacks;
+            }
+        }
+    }
 
-            if (isInBoard(targetRow, targetColumn)) {
-                int targetPosition = getPosition(targetRow, targetColumn);
-                ChessPiece targetPiece = getPiece(targetPosition);
-                if(shouldFillAttackedSquares) {
-                    addAttackedSquare(targetPosition, position);
-                }
+    /**
+     * @return The squares attacked by a piece other than the king. The pins of the sliding pieces on the opponent are added to {@link #opponentPinnedPieces}
+     */
+    private long computePieceAttacks(boolean white, int unsignedPieceId, int position){
+        return switch (unsignedPieceId){
+            case 3, 4, 5 -> {
+                addOpponentPin(white, unsignedPieceId, position);
+                yield BitboardAttacks.getSlidingAttacks(unsignedPieceId, position, occupiedSquares);
+            }
+            case 2 -> BitboardAttacks.getKnightAttacks(position);
+            default -> BitboardAttacks.getPawnAttacks(white, position);
+        };
+    }
 
-                if (targetPiece != null) {
-                    if (targetPiece.isWhite() != piece.isWhite()) {
-                        allowedMoves.add(getStandardMove(position, targetPosition, piece, targetPiece));
-                    }
-                } else {
-                    allowedMoves.add(getStandardMove(position, targetPosition, piece, null));
-                }
+    private void addOpponentPin(boolean white, int unsignedPieceId, int position){
+        int opponentKingPosition = white ? blackKingPosition : whiteKingPosition;
+        long between = BitboardAttacks.getSquaresBetween(position, opponentKingPosition);
+        if(between != 0 && (BitboardAttacks.getSlidingAttacks(unsignedPieceId, position, 0L) & (1L << opponentKingPosition)) != 0){
+            long blockers = between & occupiedSquares;
+            if(blockers != 0 && (blockers & (blockers - 1)) == 0 && (blockers & getColorBitboard(white)) == 0){
+                opponentPinnedPieces |= blockers;
             }
         }
     }
 
-    private void addPawnMoves(List<Integer> allowedMoves, ChessPiece piece, int position, boolean shouldFillAttackedSquares){
+    private int addTargetMoves(int[] moves, int count, ChessPiece piece, int position, long targets){
+        for(; targets != 0; targets &= targets - 1){
+            int targetPosition = Long.numberOfTrailingZeros(targets);
+            moves[count++] = getStandardMove(position, targetPosition, piece, getPiece(targetPosition));
+        }
+        return count;
+    }
+
+    /**
+     * @param capturesOnly If true, the only non-capture moves generated are the promotions
+     */
+    private int addPawnMoves(int[] moves, int count, ChessPiece piece, int position, long allowedTargets, boolean capturesOnly){
         int sign = piece.isWhite() ? 1 : -1;
         int row = getRow(position);
         int column = getColumn(position);
@@ -259,206 +404,157 @@ public class IntegerChessBoard {
         int targetRow = row + sign;
         int targetColumn = column;
         int targetPosition = getPosition(targetRow, targetColumn);
-        if(isInBoard(targetRow, targetColumn) && getPiece(targetPosition) == null){
-            if(!checkPromotionMoves(allowedMoves, piece, position, targetPosition)){
-                allowedMoves.add(getStandardMove(position, targetPosition, piece, null));
+        if(isInBoard(targetRow, targetColumn) && getPiece(targetPosition) == null && (allowedTargets & (1L << targetPosition)) != 0){
+            if(isPromotionSquare(piece, targetPosition)){
+                count = addPromotionMoves(moves, count, piece, position, targetPosition);
+            } else if(!capturesOnly){
+                moves[count++] = getStandardMove(position, targetPosition, piece, null);
             }
         }
 
         // Adding capture moves
-        for(int i = -1; i < 2; i+=2){
-            targetColumn = column + i;
-            targetPosition = getPosition(targetRow, targetColumn);
-            if(isInBoard(targetRow, targetColumn)){
-                if(shouldFillAttackedSquares) {
-                    addAttackedSquare(targetPosition, position);
-                }
-                ChessPiece targetPiece = getPiece(targetPosition);
-                if(targetPiece != null && targetPiece.isWhite() != piece.isWhite()){
-                    if(!checkPromotionMoves(allowedMoves, piece, position, targetPosition)){
-                        allowedMoves.add(getStandardMove(position, targetPosition, piece, targetPiece));
-                    }
-                }
+        for(long targets = BitboardAttacks.getPawnAttacks(piece.isWhite(), position) & getColorBitboard(!piece.isWhite()) & allowedTargets; targets != 0; targets &= targets - 1){
+            targetPosition = Long.numberOfTrailingZeros(targets);
+            if(isPromotionSquare(piece, targetPosition)){
+                count = addPromotionMoves(moves, count, piece, position, targetPosition);
+            } else {
+                moves[count++] = getStandardMove(position, targetPosition, piece, getPiece(targetPosition));
             }
         }
 
-        // Adding en passant moves
+        // Adding en passant moves : they can discover a check on the row, so we play them to check if they are legal
         if(enPassant > 0 && row == (piece.isWhite() ? 4 : 3)) {
             for (int i = -1; i < 2; i++) {
                 targetColumn = column + i;
                 targetPosition = getPosition(row, targetColumn);
                 if(targetPosition == enPassant && isInBoard(targetRow, targetColumn)){
-                    allowedMoves.add(getEnPassantMove(position, targetPosition + (piece.isWhite() ? 8 : -8), piece, getPiece(this.enPassant)));
+                    int move = getEnPassantMove(position, targetPosition + (piece.isWhite() ? 8 : -8), piece, getPiece(this.enPassant));
+                    if(isLegalMove(move)){
+                        moves[count++] = move;
+                    }
                 }
             }
         }
 
         // Adding advance 2 squares move
-        if(row == (piece.isWhite() ? 1 : 6)){
+        if(!capturesOnly && row == (piece.isWhite() ? 1 : 6)){
             targetRow = row + 2 * sign;
             targetColumn = column;
             targetPosition = getPosition(targetRow, targetColumn);
-            if(getPiece(targetPosition) == null && getPiece(row + sign, column) == null){
-                allowedMoves.add(getTwoSquaresPawnMove(position, targetPosition, piece));
+            if(getPiece(targetPosition) == null && getPiece(row + sign, column) == null && (allowedTargets & (1L << targetPosition)) != 0){
+                moves[count++] = getTwoSquaresPawnMove(position, targetPosition, piece);
             }
         }
-    }
 
-    private boolean checkPromotionMoves(List<Integer> allowedMoves, ChessPiece piece, int position, int targetPosition){
-        if(getRow(targetPosition) == (piece.isWhite() ? 7 : 0)){
-            for(ChessPiece newPiece : ChessPiece.getColoredPromotionPieces(piece.isWhite())){
-                allowedMoves.add(getPromotionMove(position, targetPosition, piece, getPiece(targetPosition), newPiece));
-            }
-            return true;
-        }
-        return false;
+        return count;
     }
 
-    private void addPseudoLegalKingMovesWithoutCastles(List<Integer> allowedMoves, ChessPiece piece, int position, boolean shouldFillAttackedSquares){
-        int row = getRow(position);
-        int column = getColumn(position);
-
-        // Adding standard moves
-        for (int[] standardMove : standardMoves) {
-            int targetRow = row + standardMove[0];
-            int targetColumn = column + standardMove[1];
-
-            if (isInBoard(targetRow, targetColumn)) {
-                int targetPosition = getPosition(targetRow, targetColumn);
-
-                if(shouldFillAttackedSquares) {
-                    addAttackedSquare(targetPosition, position);
-                }
+    private boolean isPromotionSquare(ChessPiece piece, int targetPosition){
+        return getRow(targetPosition) == (piece.isWhite() ? 7 : 0);
+    }
 
-                ChessPiece targetPiece = getPiece(targetRow, targetColumn);
-                if (targetPiece == null || targetPiece.isWhite() != piece.isWhite()) {
-                    allowedMoves.add(getStandardMove(position, targetPosition, piece, targetPiece));
-                }
-            }
+    private int addPromotionMoves(int[] moves, int count, ChessPiece piece, int position, int targetPosition){
+        int sign = piece.isWhite() ? 1 : -1;
+        ChessPiece capturedPiece = getPiece(targetPosition);
+        for(int unsignedId = 2; unsignedId <= 5; unsignedId++){
+            moves[count++] = getPromotionMove(position, targetPosition, piece, capturedPiece, ChessPiece.getPiece(sign * unsignedId));
         }
+        return count;
     }
 
-    private void fillLegalKingMoves(List<Integer> allowedMoves, ChessPiece piece, int position, boolean addCastle){
-        int row = getRow(position);
-        int column = getColumn(position);
+    private int fillLegalKingMoves(int[] moves, int count, ChessPiece piece, int position, boolean addCastle, long allowedTargets){
+        long attacks = BitboardAttacks.getKingAttacks(position);
+        pieceAttacks[position] = attacks;
+        playerAttackedSquares |= attacks;
 
         // Adding standard moves
-        for (int[] standardMove : standardMoves) {
-            int targetRow = row + standardMove[0];
-            int targetColumn = column + standardMove[1];
-
-            if (isInBoard(targetRow, targetColumn)) {
-                int targetPos = getPosition(targetRow, targetColumn);
-                ChessPiece targetPiece = getPiece(targetRow, targetColumn);
-                if ((targetPiece == null || targetPiece.isWhite() != piece.isWhite()) && squaresAttackers[targetPos] == null && checks[targetPos] == 0) {
-                    allowedMoves.add(getStandardMove(position, targetPos, piece, targetPiece));
-                }
-            }
+        for(long targets = attacks & ~getColorBitboard(piece.isWhite()) & ~attackedSquares & allowedTargets; targets != 0; targets &= targets - 1){
+            int targetPos = Long.numberOfTrailingZeros(targets);
+            moves[count++] = getStandardMove(position, targetPos, piece, getPiece(targetPos));
         }
 
         // Adding castle
         if(addCastle) {
-            if(piece.isWhite()){
-                if ((castles & 0b1000) != 0) {
-                    // Adding castle king side
-                    if (getPiece(5) == null && getPiece(6) == null && squaresAttackers[5] == null && squaresAttackers[6] == null) {
-                        allowedMoves.add(getCastleMove(position, 6, piece, true));
-                    }
-                }
-                if ((castles & 0b0100) != 0) {
-                    // Adding castle queen side
-                    if (getPiece(1) == null && getPiece(2) == null && getPiece( 3) == null && squaresAttackers[2] == null && squaresAttackers[3] == null) {
-                        allowedMoves.add(getCastleMove(position, 2, piece, false));
-                    }
-                }
-            } else {
-                if ((castles & 0b0010) != 0) {
-                    // Adding castle king side
-                    if (getPiece(61) == null && getPiece(62) == null && squaresAttackers[61] == null && squaresAttackers[62] == null) {
-                        allowedMoves.add(getCastleMove(position, 62, piece, true));
-                    }
-                }
-                if ((castles & 0b0001) != 0) {
-                    // Adding castle queen side
-                    if (getPiece(57) == null && getPiece(58) == null && getPiece(59) == null && squaresAttackers[58] == null && squaresAttackers[59] == null) {
-                        allowedMoves.add(getCastleMove(position, 58, piece, false));
-                    }
-                }
+            boolean white = piece.isWhite();
+            if(canCastle(white, true)){
+                moves[count++] = getCastleMove(position, white ? 6 : 62, piece, true);
+            }
+            if(canCastle(white, false)){
+                moves[count++] = getCastleMove(position, white ? 2 : 58, piece, false);
             }
         }
+
+        return count;
+    }
+
+    /**
+     * Should be called after {@link #fillAttackedSquares(boolean)}, when the king is not in check
+     */
+    private boolean canCastle(boolean white, boolean kingSide){
+        int castleRight = white ? (kingSide ? 0b1000 : 0b0100) : (kingSide ? 0b0010 : 0b0001);
+        // The squares between the king and the rook must be empty, and the squares crossed by the king must not be attacked
+        long emptySquares = kingSide ? 0x60L : 0x0eL;
+        long safeSquares = kingSide ? 0x60L : 0x0cL;
+        if(!white){
+            emptySquares <<= 56;
+            safeSquares <<= 56;
+        }
+        return (castles & castleRight) != 0 && (occupiedSquares & emptySquares) == 0 && (attackedSquares & safeSquares) == 0;
     }
 
     private boolean isLegalMove(int move){
         playMove(move);
         int kingPos = whiteToPlay ? blackKingPosition : whiteKingPosition;
-        boolean attacked = isAttackedBy(kingPos, whiteToPlay);
+        boolean attacked = isAttackedBy(kingPos, whiteToPlay, occupiedSquares);
         undoMove(move);
 
         return !attacked;
     }
 
-    private boolean isAttackedBy(int position, boolean white){
-        int row = getRow(position);
-        int column = getColumn(position);
-        // Checking if a standard piece attacks this square
-        for(int i = 0; i < standardMoves.length; i++){
-            int attackingRow = row + standardMoves[i][0];
-            int attackingColumn = column + standardMoves[i][1];
-
-            if(isInBoard(attackingRow, attackingColumn)) {
-                if (getPiece(attackingRow, attackingColumn) == (white ? ChessPiece.WHITE_KING : ChessPiece.BLACK_KING)) {
-                    return true;
-                }
+    /**
+     * @return The pieces of the given player attacking this position
+     */
+    private long getAttackers(int position, boolean white){
+        int sign = white ? 1 : -1;
+        long queens = piecesBitboards[5 * sign + 6];
+        return (BitboardAttacks.getRookAttacks(position, occupiedSquares) & (piecesBitboards[4 * sign + 6] | queens))
+                | (BitboardAttacks.getBishopAttacks(position, occupiedSquares) & (piecesBitboards[3 * sign + 6] | queens))
+                | (BitboardAttacks.getKnightAttacks(position) & piecesBitboards[2 * sign + 6])
+                | (BitboardAttacks.getKingAttacks(position) & piecesBitboards[6 * sign + 6])
+                | (BitboardAttacks.getPawnAttacks(!white, position) & piecesBitboards[sign + 6]);
+    }
 
-                do{
-                    ChessPiece piece = getPiece(attackingRow, attackingColumn);
-                    if(piece != null){
-                        if(piece.isWhite() == white && i >= piece.getBeginStandardOffset() && i <= piece.getEndStandardOffset()){
-                            return true;
-                        }
-                        break;
-                    }
+    private boolean isAttackedBy(int position, boolean white, long occupiedSquares){
+        int sign = white ? 1 : -1;
+        long queens = piecesBitboards[5 * sign + 6];
 
-                    attackingRow += standardMoves[i][0];
-                    attackingColumn += standardMoves[i][1];
-                } while (isInBoard(attackingRow, attackingColumn));
-            }
+        // Checking if a sliding piece attacks this square
+        if((BitboardAttacks.getRookAttacks(position, occupiedSquares) & (piecesBitboards[4 * sign + 6] | queens)) != 0){
+            return true;
         }
-
-        // Checking if a knight attacks this square
-        for (int[] knightMove : knightMoves) {
-            int attackingRow = row + knightMove[0];
-            int attackingColumn = column + knightMove[1];
-
-            if (isInBoard(attackingRow, attackingColumn)) {
-                ChessPiece piece = getPiece(attackingRow, attackingColumn);
-                if (piece == (white ? ChessPiece.WHITE_KNIGHT : ChessPiece.BLACK_KNIGHT)) {
-                    return true;
-                }
-            }
+        if((BitboardAttacks.getBishopAttacks(position, occupiedSquares) & (piecesBitboards[3 * sign + 6] | queens)) != 0){
+            return true;
         }
 
-        // Checking if a pawn attacks this square
-        int offset = white ? -1 : 1;
-        for(int i = -1; i < 2; i+=2){
-            int attackingRow = row + offset;
-            int attackingColumn = column + i;
-
-            if (isInBoard(attackingRow, attackingColumn)) {
-                ChessPiece piece = getPiece(attackingRow, attackingColumn);
-                if(piece == (white ? ChessPiece.WHITE_PAWN : ChessPiece.BLACK_PAWN)){
-                    return true;
-                }
-            }
+        // Checking if a knight, a king or a pawn attacks this square
+        if((BitboardAttacks.getKnightAttacks(position) & piecesBitboards[2 * sign + 6]) != 0){
+            return true;
+        }
+        if((BitboardAttacks.getKingAttacks(position) & piecesBitboards[6 * sign + 6]) != 0){
+            return true;
         }
 
         // We do not check if this square is attacked with en passant rule
-
-        // Nothing attacks the square
-        return false;
+        return (BitboardAttacks.getPawnAttacks(!white, position) & piecesBitboards[sign + 6]) != 0;
     }
 
     public void playMove(int move){
+        attackDataValid = false;
+        if(accumulator != null){
+            accumulator.push(this);
+        }
+        hash ^= Zobrist.getCastleKey(castles) ^ Zobrist.getEnPassantKey(enPassant);
+
         int playerSign = whiteToPlay ? 1 : -1;
         int opponentSign = -playerSign;
 
@@ -499,6 +595,7 @@ public class IntegerChessBoard {
             ChessPiece promotedPiece = ChessPiece.getPiece(playerSign * unsignedPromotedPieceId);
             this.removePiecePosition(movedPiece, initialPosition);
             this.addPiecePosition(promotedPiece, finalPosition);
+            this.enPassant = 0;
         } else {
             boolean enPassant = (extraDatas & 0b0110) == 0b0100;
             boolean castle = (extraDatas & 0b0110) == 0b0110;
@@ -564,9 +661,20 @@ public class IntegerChessBoard {
         }
 
         this.whiteToPlay = !this.whiteToPlay;
+        hash ^= Zobrist.getCastleKey(castles) ^ Zobrist.getEnPassantKey(enPassant) ^ Zobrist.getBlackToPlayKey();
+
+        assert hash == computeHash() : "Incremental hash differs after playing " + move;
+        assert midgameScore == computeMidgameScore() : "Incremental score differs after playing " + move;
+        assert pawnHash == computePawnHash() : "Incremental pawn hash differs after playing " + move;
     }
 
     public void undoMove(int move){
+        attackDataValid = false;
+        // The accumulators before the move are taken back from their stack, so they are not updated by the undone move
+        NeuralAccumulator playedAccumulator = accumulator;
+        accumulator = null;
+        hash ^= Zobrist.getCastleKey(castles) ^ Zobrist.getEnPassantKey(enPassant);
+
         int playerSign = whiteToPlay ? -1 : 1;
         int opponentSign = -playerSign;
 
@@ -620,13 +728,16 @@ public class IntegerChessBoard {
         }
 
         this.whiteToPlay = !this.whiteToPlay;
-    }
+        hash ^= Zobrist.getCastleKey(castles) ^ Zobrist.getEnPassantKey(enPassant) ^ Zobrist.getBlackToPlayKey();
 
-    private void addAttackedSquare(int squarePosition, int attackerPosition){
-        if(squaresAttackers[squarePosition] == null){
-            squaresAttackers[squarePosition] = new PartialIntegerList();
+        if(playedAccumulator != null){
+            playedAccumulator.pop();
+            accumulator = playedAccumulator;
         }
-        squaresAttackers[squarePosition].addElement(attackerPosition);
+
+        assert hash == computeHash() : "Incremental hash differs after undoing " + move;
+        assert midgameScore == computeMidgameScore() : "Incremental score differs after undoing " + move;
+        assert pawnHash == computePawnHash() : "Incremental pawn hash differs after undoing " + move;
     }
 
     public ChessPiece getPiece(int row, int column){
@@ -637,19 +748,60 @@ public class IntegerChessBoard {
         return ChessPiece.getPiece(board[position]);
     }
 
+    /**
+     * Builds the set of the positions of a piece. This allocates a new set at each call and should not be used in move generation
+     * @return The positions of the given piece
+     */
     public Set<Integer> getPiecePositions(ChessPiece piece){
-        return piecesPositions.getOrDefault(piece, new HashSet<>());
+        Set<Integer> positions = new HashSet<>();
+        for(long bitboard = getPieceBitboard(piece); bitboard != 0; bitboard &= bitboard - 1){
+            positions.add(Long.numberOfTrailingZeros(bitboard));
+        }
+        return positions;
     }
 
     public Map<ChessPiece, Set<Integer>> getPiecesPositions(){
+        Map<ChessPiece, Set<Integer>> piecesPositions = new HashMap<>();
+        for(ChessPiece piece : ChessPiece.values()){
+            if(getPieceBitboard(piece) != 0){
+                piecesPositions.put(piece, getPiecePositions(piece));
+            }
+        }
         return piecesPositions;
     }
 
+    /**
+     * @return A 64 bits word where the bit n is set if the given piece is on the position n
+     */
+    public long getPieceBitboard(ChessPiece piece){
+        return piecesBitboards[piece.getId() + 6];
+    }
+
+    public long getColorBitboard(boolean white){
+        return white ? whitePieces : blackPieces;
+    }
+
+    public long getOccupiedSquares(){
+        return occupiedSquares;
+    }
+
     private void addPiecePosition(ChessPiece piece, int position){
-        Set<Integer> positions = getPiecePositions(piece);
-        positions.add(position);
-        piecesPositions.put(piece, positions);
+        long mask = 1L << position;
+        piecesBitboards[piece.getId() + 6] |= mask;
+        if(piece.isWhite()){
+            whitePieces |= mask;
+        } else {
+            blackPieces |= mask;
+        }
+        occupiedSquares |= mask;
         board[position] = piece.getId();
+        hash ^= Zobrist.getPieceKey(piece.getId(), position);
+        midgameScore += PieceSquareTables.getMidgameValue(piece.getId(), position);
+        endgameScore += PieceSquareTables.getEndgameValue(piece.getId(), position);
+        gamePhase += PieceSquareTables.getPhaseWeight(piece.getUnsignedId());
+        if(piece.getUnsignedId() == 1){
+            pawnHash ^= Zobrist.getPieceKey(piece.getId(), position);
+        }
 
         if(piece.getUnsignedId() == 6){
             if(piece.isWhite()){
@@ -658,22 +810,50 @@ public class IntegerChessBoard {
                 blackKingPosition = position;
             }
         }
+        if(accumulator != null){
+            accumulator.addPiece(piece.getId(), position, whiteKingPosition, blackKingPosition);
+        }
     }
 
     private void removePiecePosition(ChessPiece piece, int position){
-        Set<Integer> positions = getPiecePositions(piece);
-        positions.remove(position);
-        piecesPositions.put(piece, positions);
+        long mask = ~(1L << position);
+        piecesBitboards[piece.getId() + 6] &= mask;
+        if(piece.isWhite()){
+            whitePieces &= mask;
+        } else {
+            blackPieces &= mask;
+        }
+        occupiedSquares &= mask;
         board[position] = 0;
+        hash ^= Zobrist.getPieceKey(piece.getId(), position);
+        midgameScore -= PieceSquareTables.getMidgameValue(piece.getId(), position);
+        endgameScore -= PieceSquareTables.getEndgameValue(piece.getId(), position);
+        gamePhase -= PieceSquareTables.getPhaseWeight(piece.getUnsignedId());
+        if(piece.getUnsignedId() == 1){
+            pawnHash ^= Zobrist.getPieceKey(piece.getId(), position);
+        }
+        if(accumulator != null){
+            accumulator.removePiece(piece.getId(), position, whiteKingPosition, blackKingPosition);
+        }
     }
 
     private void switchPiecePosition(ChessPiece piece, int previousPosition, int newPosition){
-        Set<Integer> positions = getPiecePositions(piece);
-        positions.remove(previousPosition);
-        positions.add(newPosition);
-        piecesPositions.put(piece, positions);
+        long mask = (1L << previousPosition) | (1L << newPosition);
+        piecesBitboards[piece.getId() + 6] ^= mask;
+        if(piece.isWhite()){
+            whitePieces ^= mask;
+        } else {
+            blackPieces ^= mask;
+        }
+        occupiedSquares ^= mask;
         board[previousPosition] = 0;
         board[newPosition] = piece.getId();
+        hash ^= Zobrist.getPieceKey(piece.getId(), previousPosition) ^ Zobrist.getPieceKey(piece.getId(), newPosition);
+        midgameScore += PieceSquareTables.getMidgameValue(piece.getId(), newPosition) - PieceSquareTables.getMidgameValue(piece.getId(), previousPosition);
+        endgameScore += PieceSquareTables.getEndgameValue(piece.getId(), newPosition) - PieceSquareTables.getEndgameValue(piece.getId(), previousPosition);
+        if(piece.getUnsignedId() == 1){
+            pawnHash ^= Zobrist.getPieceKey(piece.getId(), previousPosition) ^ Zobrist.getPieceKey(piece.getId(), newPosition);
+        }
 
         if(piece.getUnsignedId() == 6){
             if(piece.isWhite()){
@@ -682,12 +862,107 @@ public class IntegerChessBoard {
                 blackKingPosition = newPosition;
             }
         }
+        if(accumulator != null){
+            accumulator.movePiece(piece.getId(), previousPosition, newPosition, whiteKingPosition, blackKingPosition);
+        }
+    }
+
+    /**
+     * Attaches a neural network to the board : its accumulators are then updated at each move, see {@link NeuralAccumulator}
+     * @param network The network, null to stop updating the accumulators
+     */
+    public void setNeuralNetwork(NeuralNetwork network){
+        this.accumulator = network == null ? null : new NeuralAccumulator(network);
+    }
+
+    /**
+     * @return The accumulators of the attached neural network, null without network
+     */
+    public NeuralAccumulator getNeuralAccumulator(){
+        return accumulator;
+    }
+
+    public long getHash(){
+        return hash;
+    }
+
+    public long getPawnHash(){
+        return pawnHash;
+    }
+
+    /**
+     * Computes the pawn hash from scratch, to check the incremental one when assertions are enabled
+     */
+    private long computePawnHash(){
+        long pawnHash = 0L;
+        for(long pawns = piecesBitboards[ChessPiece.WHITE_PAWN.getId() + 6] | piecesBitboards[ChessPiece.BLACK_PAWN.getId() + 6]; pawns != 0; pawns &= pawns - 1){
+            int position = Long.numberOfTrailingZeros(pawns);
+            pawnHash ^= Zobrist.getPieceKey(board[position], position);
+        }
+        return pawnHash;
+    }
+
+    /**
+     * Material and piece placement evaluation, blending the middlegame and endgame scores kept up to date at each move
+     * @return The score of white, in centipawns
+     */
+    public int getPieceSquareScore(){
+        return PieceSquareTables.getTaperedScore(midgameScore, endgameScore, gamePhase);
+    }
+
+    public int getMidgameScore(){
+        return midgameScore;
+    }
+
+    public int getEndgameScore(){
+        return endgameScore;
+    }
+
+    public int getGamePhase(){
+        return gamePhase;
+    }
+
+    /**
+     * Computes the middlegame piece-square score from scratch, to check the incremental one when assertions are enabled
+     */
+    private int computeMidgameScore(){
+        int score = 0;
+        for(long pieces = occupiedSquares; pieces != 0; pieces &= pieces - 1){
+            int position = Long.numberOfTrailingZeros(pieces);
+            score += PieceSquareTables.getMidgameValue(board[position], position);
+        }
+        return score;
+    }
+
+    /**
+     * Computes the Zobrist hash of the position from scratch. The incremental hash is checked against it after each move when assertions are enabled (-ea)
+     * @return The hash of the current position
+     */
+    public long computeHash(){
+        long hash = Zobrist.getCastleKey(castles) ^ Zobrist.getEnPassantKey(enPassant);
+        if(!whiteToPlay){
+            hash ^= Zobrist.getBlackToPlayKey();
+        }
+        for(long pieces = occupiedSquares; pieces != 0; pieces &= pieces - 1){
+            int position = Long.numberOfTrailingZeros(pieces);
+            hash ^= Zobrist.getPieceKey(board[position], position);
+        }
+        return hash;
     }
 
     public void loadFen(String fen){
-        piecesPositions.clear();
-        for(int i = 0; i < 64; i++){
-            board[i] = 0;
+        Arrays.fill(piecesBitboards, 0L);
+        whitePieces = 0L;
+        blackPieces = 0L;
+        occupiedSquares = 0L;
+        Arrays.fill(board, 0);
+        midgameScore = 0;
+        endgameScore = 0;
+        gamePhase = 0;
+        pawnHash = 0L;
+        attackDataValid = false;
+        if(accumulator != null){
+            accumulator.invalidate();
         }
 
         castles = 0;
@@ -695,7 +970,7 @@ public class IntegerChessBoard {
         String[] args = fen.split(" ");
 
         String[] pos = args[0].split("/");
-        assert pos.length != 8;
+        assert pos.length == 8;
 
         int column = 0;
         int row = 7;
@@ -751,6 +1026,8 @@ public class IntegerChessBoard {
                 this.moveCount = Integer.parseInt(args[5]);
             } catch (NumberFormatException ignore){}
         }
+
+        this.hash = computeHash();
     }
 
     public static int getRow(int position){
@@ -812,27 +1089,43 @@ public class IntegerChessBoard {
         return (move & 0x00000fc0) >>> 6;
     }
 
-    public int perft(int depth, int depthPrint){
+    /**
+     * @return The unsigned id of the moved piece, from 1 for a pawn to 6 for a king
+     */
+    public static int getMoveMovedPiece(int move){
+        return (move & 0x00007000) >>> 12;
+    }
+
+    /**
+     * @return The unsigned id of the captured piece, 0 if the move is not a capture
+     */
+    public static int getMoveCapturedPiece(int move){
+        return (move & 0x00038000) >>> 15;
+    }
+
+    public long perft(int depth, int depthPrint){
         if(depth == 0){
             return 1;
         }
+        if(depth == 1 && depthPrint != 1){
+            return countAllowedMoves();
+        }
 
-        int count = 0;
-        for(int move : getAllowedMoves()){
+        if(perftMoveBuffers == null || perftMoveBuffers.length <= depth){
+            perftMoveBuffers = createMoveBuffers(depth + 1);
+        }
+        int[] moves = perftMoveBuffers[depth];
+        int movesCount = fillAllowedMoves(moves);
+
+        long count = 0;
+        for(int i = 0; i < movesCount; i++){
+            int move = moves[i];
             playMove(move);
-            int moveCount = perft(depth - 1, depthPrint);
+            long moveCount = perft(depth - 1, depthPrint);
             undoMove(move);
 
             if(depthPrint == depth){
-                int initialPos = getMoveInitialPosition(move);
-                int finalPos = getMoveFinalPosition(move);
-                boolean promotion = move < 0;
-                String extra = "";
-                if(promotion){
-                    int promotedPiece = (move & 0x70000000) >>> 28;
-                    extra = "" + ChessPiece.getPiece(promotedPiece).getFenChar();
-                }
-                System.out.println(AbstractChessBoard.getPositionString(getRow(initialPos), getColumn(initialPos)) + AbstractChessBoard.getPositionString(getRow(finalPos), getColumn(finalPos)) + extra + ": " + moveCount);
+                System.out.println(getDivideMoveString(move) + ": " + moveCount);
             }
 
             count += moveCount;
@@ -841,6 +1134,286 @@ public class IntegerChessBoard {
         return count;
     }
 
+    /**
+     * Perft counting the leaf nodes by category : captures, en passant captures, castles, promotions, checks, discovered checks,
+     * double checks and checkmates. The checks of the last ply are found without playing the moves, except the special moves
+     * and the checks, which are played to look for a checkmate.
+     * Each leaf move is still classified one by one, so this perft is about 3 times slower than {@link #perft(int, int)},
+     * which only counts the moves of the last ply
+     */
+    public PerftStatistics perftWithStatistics(int depth){
+        PerftStatistics statistics = new PerftStatistics();
+        if(depth == 0){
+            statistics.nodes = 1;
+        } else {
+            if(perftMoveBuffers == null || perftMoveBuffers.length <= depth){
+                perftMoveBuffers = createMoveBuffers(depth + 1);
+            }
+            addPerftStatistics(depth, statistics);
+        }
+        return statistics;
+    }
+
+    private void addPerftStatistics(int depth, PerftStatistics statistics){
+        int[] moves = perftMoveBuffers[depth];
+        int movesCount = fillAllowedMoves(moves);
+        if(depth == 1){
+            addLastPlyStatistics(moves, movesCount, statistics);
+            return;
+        }
+
+        for(int i = 0; i < movesCount; i++){
+            int move = moves[i];
+            playMove(move);
+            addPerftStatistics(depth - 1, statistics);
+            undoMove(move);
+        }
+    }
+
+    private void addLastPlyStatistics(int[] moves, int movesCount, PerftStatistics statistics){
+        statistics.nodes += movesCount;
+
+        // The squares from which each piece type would check the opponent king, [unsigned piece id]
+        int opponentKingPosition = whiteToPlay ? blackKingPosition : whiteKingPosition;
+        long bishopChecks = BitboardAttacks.getBishopAttacks(opponentKingPosition, occupiedSquares);
+        long rookChecks = BitboardAttacks.getRookAttacks(opponentKingPosition, occupiedSquares);
+        checkSquares[1] = BitboardAttacks.getPawnAttacks(!whiteToPlay, opponentKingPosition);
+        checkSquares[2] = BitboardAttacks.getKnightAttacks(opponentKingPosition);
+        checkSquares[3] = bishopChecks;
+        checkSquares[4] = rookChecks;
+        checkSquares[5] = bishopChecks | rookChecks;
+        long discoveryBlockers = fillDiscoveryBlockers(opponentKingPosition);
+
+        // The counters are kept in local variables for the loop
+        long captures = 0;
+        long checks = 0;
+        long discoveredChecks = 0;
+        long doubleChecks = 0;
+        long checkmates = 0;
+        for(int i = 0; i < movesCount; i++){
+            int move = moves[i];
+            if((move & 0x00038000) != 0){
+                captures++;
+            }
+
+            if((move & 0xc0000000) != 0){
+                // The promotions, the en passant captures and the castles change more than two squares : they are played
+                if(move < 0){
+                    statistics.promotions++;
+                } else if((move & 0x60000000) == 0x40000000){
+                    statistics.enPassants++;
+                } else {
+                    statistics.castles++;
+                }
+                playMove(move);
+                addPlayedMoveCheckStatistics(move, statistics);
+                undoMove(move);
+                continue;
+            }
+
+            int initialPosition = move & 0x0000003f;
+            long finalSquare = 1L << ((move & 0x00000fc0) >>> 6);
+            boolean directCheck = (checkSquares[(move & 0x00007000) >>> 12] & finalSquare) != 0;
+            boolean discoveredCheck = (discoveryBlockers & (1L << initialPosition)) != 0 && (discoveryRays[initialPosition] & finalSquare) == 0;
+            if(directCheck || discoveredCheck){
+                checks++;
+                if(!directCheck){
+                    discoveredChecks++;
+                } else if(discoveredCheck){
+                    doubleChecks++;
+                }
+                playMove(move);
+                if(isCheckmate()){
+                    checkmates++;
+                }
+                undoMove(move);
+            }
+        }
+
+        statistics.captures += captures;
+        statistics.checks += checks;
+        statistics.discoveredChecks += discoveredChecks;
+        statistics.doubleChecks += doubleChecks;
+        statistics.checkmates += checkmates;
+    }
+
+    /**
+     * Finds the pieces of the current player that are the only piece between one of its sliding pieces and the opponent king
+     * @return The positions of these pieces, their ray being stored in discoveryRays
+     */
+    private long fillDiscoveryBlockers(int opponentKingPosition){
+        int sign = whiteToPlay ? 1 : -1;
+        long discoveryBlockers = 0L;
+        for (int unsignedId = 3; unsignedId <= 5; unsignedId++) {
+            for (long positions = piecesBitboards[sign * unsignedId + 6]; positions != 0; positions &= positions - 1) {
+                int position = Long.numberOfTrailingZeros(positions);
+                long between = BitboardAttacks.getSquaresBetween(position, opponentKingPosition);
+                if(between == 0 || (BitboardAttacks.getSlidingAttacks(unsignedId, position, 0L) & (1L << opponentKingPosition)) == 0){
+                    continue;
+                }
+                long blockers = between & occupiedSquares;
+                if((blockers & (blockers - 1)) == 0 && (blockers & getColorBitboard(whiteToPlay)) != 0){
+                    discoveryBlockers |= blockers;
+                    discoveryRays[Long.numberOfTrailingZeros(blockers)] = between | (1L << position);
+                }
+            }
+        }
+        return discoveryBlockers;
+    }
+
+    /**
+     * Should be called after playing the leaf move
+     */
+    private void addPlayedMoveCheckStatistics(int move, PerftStatistics statistics){
+        long checkers = getAttackers(whiteToPlay ? whiteKingPosition : blackKingPosition, !whiteToPlay);
+        if(checkers == 0){
+            return;
+        }
+        statistics.checks++;
+
+        // As in the published tables, a check is discovered only if the moved piece does not give check itself. The rook is the checking piece of a castle
+        int extraDatas = (move & 0xf0000000) >>> 28;
+        long movedPiece = 1L << getMoveFinalPosition(move);
+        if((extraDatas & 0b0110) == 0b0110 && move >= 0){
+            movedPiece = BitboardAttacks.getSquaresBetween(getMoveInitialPosition(move), getMoveFinalPosition(move));
+        }
+        if((checkers & movedPiece) == 0){
+            statistics.discoveredChecks++;
+        }
+        if((checkers & (checkers - 1)) != 0){
+            statistics.doubleChecks++;
+        }
+        if(isCheckmate()){
+            statistics.checkmates++;
+        }
+    }
+
+    /**
+     * Should only be called when the current player is in check. Most checks are escaped by a king move, so the king moves
+     * are tried before counting all the legal moves
+     */
+    private boolean isCheckmate(){
+        int kingPosition = whiteToPlay ? whiteKingPosition : blackKingPosition;
+        // The king is removed from the occupied squares, so it cannot escape along the checking ray
+        long occupiedWithoutKing = occupiedSquares & ~(1L << kingPosition);
+        for(long targets = BitboardAttacks.getKingAttacks(kingPosition) & ~getColorBitboard(whiteToPlay); targets != 0; targets &= targets - 1){
+            if(!isAttackedBy(Long.numberOfTrailingZeros(targets), !whiteToPlay, occupiedWithoutKing)){
+                return false;
+            }
+        }
+        return countAllowedMoves() == 0;
+    }
+
+    /**
+     * @return The node count below each legal move, in the generation order, the moves being written as "e2e4" or "e7e8q"
+     */
+    public Map<String, Long> divide(int depth){
+        int[] moves = new int[MAX_MOVES];
+        int movesCount = fillAllowedMoves(moves);
+
+        Map<String, Long> divide = new LinkedHashMap<>();
+        for(int i = 0; i < movesCount; i++){
+            playMove(moves[i]);
+            divide.put(getUciMoveString(moves[i]), perft(depth - 1, -1));
+            undoMove(moves[i]);
+        }
+        return divide;
+    }
+
+    /**
+     * Perft split in fork/join tasks on the first two plies, each task counting the nodes on its own copy of the board.
+     * This board is not modified
+     * @param depthPrint The depth at which the node count of each move is printed, only the root depth is supported
+     * @return The number of leaf nodes, as a long since deep perfts overflow an int
+     */
+    public long parallelPerft(int depth, int depthPrint){
+        if(depth == 0){
+            return 1;
+        }
+
+        PerftTask task = new PerftTask(new IntegerChessBoard(this), depth, 2);
+        long count = ForkJoinPool.commonPool().invoke(task);
+
+        if(depthPrint == depth){
+            int[] moves = task.getMoves();
+            long[] moveCounts = task.getMoveCounts();
+            for(int i = 0; i < task.getMovesCount(); i++){
+                System.out.println(getDivideMoveString(moves[i]) + ": " + moveCounts[i]);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Perft storing the node count of each counted subtree in a cache, so the transpositions are only counted once.
+     * The subtrees of depth 1 are not cached, their moves are only counted
+     */
+    public long hashedPerft(int depth, PerftCache cache){
+        if(depth == 0){
+            return 1;
+        }
+
+        if(perftMoveBuffers == null || perftMoveBuffers.length <= depth){
+            perftMoveBuffers = createMoveBuffers(depth + 1);
+        }
+        if(depth == 1){
+            return countAllowedMoves();
+        }
+
+        long count = cache.probe(hash, depth);
+        if(count >= 0){
+            return count;
+        }
+        int[] moves = perftMoveBuffers[depth];
+        int movesCount = fillAllowedMoves(moves);
+
+        count = 0;
+        for(int i = 0; i < movesCount; i++){
+            int move = moves[i];
+            playMove(move);
+            count += hashedPerft(depth - 1, cache);
+            undoMove(move);
+        }
+
+        cache.store(hash, depth, count);
+        return count;
+    }
+
+    /**
+     * @return The move in the UCI notation, for example "e2e4" or "e7e8q"
+     */
+    public static String getUciMoveString(int move){
+        return getDivideMoveString(move).toLowerCase();
+    }
+
+    /**
+     * @param uciMove A move in the UCI notation, for example "e2e4" or "e7e8q"
+     * @return The legal move of this position written this way, -1 if there is none
+     */
+    public int getAllowedMove(String uciMove){
+        int[] moves = new int[MAX_MOVES];
+        int movesCount = fillAllowedMoves(moves);
+        for(int i = 0; i < movesCount; i++){
+            if(getUciMoveString(moves[i]).equals(uciMove)){
+                return moves[i];
+            }
+        }
+        return -1;
+    }
+
+    private static String getDivideMoveString(int move){
+        int initialPos = getMoveInitialPosition(move);
+        int finalPos = getMoveFinalPosition(move);
+        boolean promotion = move < 0;
+        String extra = "";
+        if(promotion){
+            int promotedPiece = (move & 0x70000000) >>> 28;
+            extra = "" + ChessPiece.getPiece(promotedPiece).getFenChar();
+        }
+        return AbstractChessBoard.getPositionString(getRow(initialPos), getColumn(initialPos)) + AbstractChessBoard.getPositionString(getRow(finalPos), getColumn(finalPos)) + extra;
+    }
+
     public static final String[] perftFens = new String[]{
             "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1 ",
             "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -",
@@ -849,14 +1422,18 @@ public class IntegerChessBoard {
             "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
             "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
     };
-    public static final int[][] perftExpectedResults = new int[][] {
-            {20, 400, 8902, 197281, 4865609, 119060324},
+    /**
+     * [perft position][depth - 1], the perfts of more than {@link #deepPerftNodes} nodes being only checked by the deep checks
+     */
+    public static final long[][] perftExpectedResults = new long[][] {
+            {20, 400, 8902, 197281, 4865609, 119060324, 3195901860L},
             {48, 2039, 97862, 4085603, 193690690},
             {14, 191, 2812, 43238, 674624, 11030083, 178633661},
             {6, 264, 9467, 422333, 15833292, 706045033},
             {44, 1486, 62379, 2103487, 89941194},
             {46, 2079, 89890, 3894594, 164075551}
     };
+    public static final long deepPerftNodes = 1000000000L;
 
 
     /**
@@ -864,14 +1441,75 @@ public class IntegerChessBoard {
      * @return An array containing for each perft position : -1 if the perft completely success, the rank of the first perft fail otherwise
      */
     public int[] launchPerftChecks(){
+        return launchPerftChecks(false, false);
+    }
+
+    /**
+     * @param parallel If the perfts should be run with {@link #parallelPerft(int, int)} on all the cores
+     * @param deep If the perfts of more than {@link #deepPerftNodes} nodes should also be checked, like the start position at depth 7
+     * @return An array containing for each perft position : -1 if the perft completely success, the rank of the first perft fail otherwise
+     */
+    public int[] launchPerftChecks(boolean parallel, boolean deep){
+        return launchPerftChecks(depth -> parallel ? parallelPerft(depth, -1) : perft(depth, -1), deep, parallel ? " on " + ForkJoinPool.commonPool().getParallelism() + " workers" : "");
+    }
+
+    /**
+     * Runs the perft checks with {@link #hashedPerft(int, PerftCache)}, and prints the hit rate of the cache
+     * @param cacheSizeMb The memory used by the cache
+     * @return An array containing for each perft position : -1 if the perft completely success, the rank of the first perft fail otherwise
+     */
+    public int[] launchHashedPerftChecks(int cacheSizeMb){
+        PerftCache cache = new PerftCache(cacheSizeMb);
+        int[] results = launchPerftChecks(depth -> hashedPerft(depth, cache), false, " with a " + cache.getSizeMb() + "MB cache");
+        System.out.println("Perft cache hit rate : " + Math.round(cache.getHitRate() * 1000) / 10.0 + "%");
+        return results;
+    }
+
+    /**
+     * Runs {@link #perftWithStatistics(int)} on each perft position and compares the counters to the published ones
+     * @param deep If the perfts of more than {@link #deepPerftNodes} nodes should also be checked
+     * @return An array containing for each perft position : -1 if the perft completely success, the rank of the first perft fail otherwise
+     */
+    public int[] launchPerftStatisticsChecks(boolean deep){
+        int[] results = new int[perftFens.length];
+        for(int i = 0; i < perftFens.length; i++){
+            loadFen(perftFens[i]);
+            results[i] = -1;
+            int depthsCount = i < PerftStatistics.publishedResults.length ? PerftStatistics.publishedResults[i].length : perftExpectedResults[i].length;
+            for(int j = 0; j < depthsCount; j++){
+                if(!deep && perftExpectedResults[i][j] > deepPerftNodes){
+                    break;
+                }
+                long elapsedTime = System.nanoTime();
+                PerftStatistics statistics = perftWithStatistics(j+1);
+                elapsedTime = System.nanoTime() - elapsedTime;
+
+                boolean success = statistics.matches(i, j+1);
+                System.out.println("Perft " + (i+1) + " at depth " + (j+1) + (success ? " succeed" : " failed") + " (" + statistics + ") in " + ChessMain.longFormat.format(elapsedTime / 1000000) + "ms");
+                if(!success){
+                    results[i] = j+1;
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private int[] launchPerftChecks(IntToLongFunction perft, boolean deep, String modeDescription){
         int[] results = new int[perftFens.length];
+        long totalNodes = 0;
+        long totalTime = System.nanoTime();
         for(int i = 0; i < perftFens.length; i++){
             loadFen(perftFens[i]);
             results[i] = -1;
             for(int j = 0; j < perftExpectedResults[i].length; j++){
+                if(!deep && perftExpectedResults[i][j] > deepPerftNodes){
+                    break;
+                }
                 long elapsedTime = System.nanoTime();
-                int result = perft(j+1, -1);
+                long result = perft.applyAsLong(j+1);
                 elapsedTime = System.nanoTime() - elapsedTime;
+                totalNodes += result;
 
                 if(result != perftExpectedResults[i][j]){
                     results[i] = j+1;
@@ -881,6 +1519,8 @@ public class IntegerChessBoard {
                 System.out.println("Perft " + (i+1) + " at depth " + (j+1) + " succeed (" + ChessMain.longFormat.format(result) + ") in " + ChessMain.longFormat.format(elapsedTime / 1000000) + "ms" + " (" + ChessMain.longFormat.format(result * 1000000000L / elapsedTime) + " nodes/s)");
             }
         }
+        totalTime = System.nanoTime() - totalTime;
+        System.out.println("Perft checks done in " + ChessMain.longFormat.format(totalTime / 1000000) + "ms (" + ChessMain.longFormat.format(totalNodes * 1000000000L / totalTime) + " nodes/s" + modeDescription + ")");
         return results;
     }
 
@@ -898,26 +1538,4 @@ public class IntegerChessBoard {
             System.out.println();
         }
     }
-
-
-    private static class PartialIntegerList{
-
-        int[] array = new int[16];
-        int size = 0;
-
-        public PartialIntegerList() {}
-
-        public void addElement(int value){
-            array[size] = value;
-            size++;
-        }
-
-        public int getElement(int index){
-            return array[index];
-        }
-
-        public int size(){
-            return size;
-        }
-    }
 }
@@ -0,0 +1,66 @@
+package fr.tt54.chess.game;
+
+/**
+ * Fixed size lossy table storing the perft node count of already counted (position, remaining depth) pairs.
+ * Each entry uses two longs : the Zobrist key xor the data, then the data, so an entry half written by another thread is seen as a miss.
+ * The data packs the node count (bits 0-55) and the remaining depth (bits 56-63). A new entry always replaces the old one.
+ */
+public class PerftCache {
+
+    private static final long countMask = (1L << 56) - 1;
+
+    private final long[] entries;
+    private final int indexMask;
+
+    private long probes = 0;
+    private long hits = 0;
+
+    /**
+     * @param sizeMb The memory used by the table, rounded down to a power of two number of entries
+     */
+    public PerftCache(int sizeMb){
+        long entriesCount = Long.highestOneBit(Math.max(1L, sizeMb * 1024L * 1024L / 16L));
+        entriesCount = Math.min(entriesCount, 1L << 29); // Java arrays are limited to 2^31 elements
+        this.entries = new long[(int) entriesCount * 2];
+        this.indexMask = (int) entriesCount - 1;
+    }
+
+    /**
+     * @return The node count stored for this position and depth, -1 if it is not in the table
+     */
+    public long probe(long key, int depth){
+        probes++;
+        int index = getIndex(key, depth);
+        long data = entries[index + 1];
+        if((entries[index] ^ data) == key && (data >>> 56) == depth){
+            hits++;
+            return data & countMask;
+        }
+        return -1;
+    }
+
+    public void store(long key, int depth, long count){
+        int index = getIndex(key, depth);
+        long data = (count & countMask) | ((long) depth << 56);
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    /**
+     * The same position at different depths uses different slots
+     */
+    private int getIndex(long key, int depth){
+        return (((int) key ^ depth * 0x9E3779B9) & indexMask) << 1;
+    }
+
+    /**
+     * @return The share of the probes that found the searched entry
+     */
+    public double getHitRate(){
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    public int getSizeMb(){
+        return (int) (entries.length * 8L / (1024 * 1024));
+    }
+}
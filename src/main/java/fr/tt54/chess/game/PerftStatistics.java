@@ -0,0 +1,140 @@
+package fr.tt54.chess.game;
+
+import fr.tt54.chess.ChessMain;
+
+/**
+ * Leaf node counters of a perft, filled by {@link IntegerChessBoard#perftWithStatistics(int)}.
+ * The categories are the ones of the published perft tables : a capture promotion is both a capture and a promotion,
+ * an en passant capture is also a capture, and the discovered and double checks are also checks.
+ */
+public class PerftStatistics {
+
+    public static final String[] categories = new String[] {"nodes", "captures", "en passant", "castles", "promotions", "checks", "discovered checks", "double checks", "checkmates"};
+
+    /**
+     * Published statistics of the perft positions, in the order of {@link #categories}, -1 if a counter is not checked. [perft position][depth - 1][category]
+     * The fourth position is published without its discovered and double checks, and the last two positions are only published
+     * with their node counts, see {@link IntegerChessBoard#perftExpectedResults}.
+     * The published table gives 2637 double checks for the second position at depth 5. This generator and a brute force count
+     * of the king attackers of each leaf both find 2645, all the other counters matching, so 2645 is checked
+     */
+    public static final long[][][] publishedResults = new long[][][] {
+            {
+                    {20, 0, 0, 0, 0, 0, 0, 0, 0},
+                    {400, 0, 0, 0, 0, 0, 0, 0, 0},
+                    {8902, 34, 0, 0, 0, 12, 0, 0, 0},
+                    {197281, 1576, 0, 0, 0, 469, 0, 0, 8},
+                    {4865609, 82719, 258, 0, 0, 27351, 6, 0, 347},
+                    {119060324, 2812008, 5248, 0, 0, 809099, 329, 46, 10828},
+                    {3195901860L, 108329926, 319617, 883453, 0, 33103848, 18026, 1628, 435767}
+            },
+            {
+                    {48, 8, 0, 2, 0, 0, 0, 0, 0},
+                    {2039, 351, 1, 91, 0, 3, 0, 0, 0},
+                    {97862, 17102, 45, 3162, 0, 993, 0, 0, 1},
+                    {4085603, 757163, 1929, 128013, 15172, 25523, 42, 6, 43},
+                    {193690690, 35043416, 73365, 4993637, 8392, 3309887, 19883, 2645, 30171}
+            },
+            {
+                    {14, 1, 0, 0, 0, 2, 0, 0, 0},
+                    {191, 14, 0, 0, 0, 10, 0, 0, 0},
+                    {2812, 209, 2, 0, 0, 267, 3, 0, 0},
+                    {43238, 3348, 123, 0, 0, 1680, 106, 0, 17},
+                    {674624, 52051, 1165, 0, 0, 52950, 1292, 3, 0},
+                    {11030083, 940350, 33325, 0, 7552, 452473, 26067, 0, 2733},
+                    {178633661, 14519036, 294874, 0, 140024, 12797406, 370630, 3612, 87}
+            },
+            {
+                    {6, 0, 0, 0, 0, 0, -1, -1, 0},
+                    {264, 87, 0, 6, 48, 10, -1, -1, 0},
+                    {9467, 1021, 4, 0, 120, 38, -1, -1, 22},
+                    {422333, 131393, 0, 7795, 60032, 15492, -1, -1, 5},
+                    {15833292, 2046173, 6512, 0, 329464, 200568, -1, -1, 50562},
+                    {706045033, 210369132, 212, 10882006, 81102984, 26973664, -1, -1, 81076}
+            }
+    };
+
+    long nodes;
+    long captures;
+    long enPassants;
+    long castles;
+    long promotions;
+    long checks;
+    long discoveredChecks;
+    long doubleChecks;
+    long checkmates;
+
+    /**
+     * @return The counters in the order of {@link #categories}
+     */
+    public long[] toArray(){
+        return new long[] {nodes, captures, enPassants, castles, promotions, checks, discoveredChecks, doubleChecks, checkmates};
+    }
+
+    /**
+     * @return If the counters are the published ones, only the node count being checked if the position has no published statistics
+     */
+    public boolean matches(int perftPosition, int depth){
+        if(perftPosition < publishedResults.length){
+            if(depth > publishedResults[perftPosition].length){
+                return false;
+            }
+            long[] counters = toArray();
+            long[] published = publishedResults[perftPosition][depth - 1];
+            for(int i = 0; i < counters.length; i++){
+                if(published[i] != -1 && published[i] != counters[i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+        return depth <= IntegerChessBoard.perftExpectedResults[perftPosition].length && nodes == IntegerChessBoard.perftExpectedResults[perftPosition][depth - 1];
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getCaptures() {
+        return captures;
+    }
+
+    public long getEnPassants() {
+        return enPassants;
+    }
+
+    public long getCastles() {
+        return castles;
+    }
+
+    public long getPromotions() {
+        return promotions;
+    }
+
+    public long getChecks() {
+        return checks;
+    }
+
+    public long getDiscoveredChecks() {
+        return discoveredChecks;
+    }
+
+    public long getDoubleChecks() {
+        return doubleChecks;
+    }
+
+    public long getCheckmates() {
+        return checkmates;
+    }
+
+    @Override
+    public String toString() {
+        long[] counters = toArray();
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < counters.length; i++){
+            if(i > 0) builder.append(", ");
+            builder.append(categories[i]).append(" : ").append(ChessMain.longFormat.format(counters[i]));
+        }
+        return builder.toString();
+    }
+}
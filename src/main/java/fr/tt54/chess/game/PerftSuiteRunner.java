@@ -0,0 +1,217 @@
+package fr.tt54.chess.game;
+
+import fr.tt54.chess.ChessMain;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks {@link IntegerChessBoard} against a perft suite in the EPD format, one position per line followed by its
+ * expected node counts : "fen ;D1 20 ;D2 400". The file is streamed, each line being counted on a worker pool while the
+ * next lines are read. The results are printed in the order of the file, and the run stops at the first mismatch
+ * with the divide of the failing position compared to the one of {@link QuickChessBoard}
+ */
+public class PerftSuiteRunner {
+
+    private final int threads;
+    private final int maxDepth;
+    private volatile boolean failed; // Set by the worker finding a mismatch, so the other workers stop
+    private int passedLines;
+    private long passedNodes;
+    private int failedLineNumber;
+    private int divideDifferences;
+
+    /**
+     * @param threads The number of positions counted at the same time
+     * @param maxDepth The depths above this one are skipped
+     */
+    public PerftSuiteRunner(int threads, int maxDepth){
+        this.threads = Math.max(1, threads);
+        this.maxDepth = maxDepth;
+    }
+
+    public boolean run(Path epdFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(epdFile)) {
+            return run(reader);
+        }
+    }
+
+    /**
+     * @return If all the positions succeed
+     */
+    public boolean run(BufferedReader reader) throws IOException {
+        failed = false;
+        passedLines = 0;
+        passedNodes = 0;
+        failedLineNumber = -1;
+        divideDifferences = -1;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Perft suite worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Only a few lines are queued ahead of the printed one, so the file is never fully loaded
+        Queue<Future<LineResult>> pendingLines = new ArrayDeque<>();
+        boolean success = true;
+        long time = System.nanoTime();
+        try {
+            String line;
+            int lineNumber = 0;
+            while (success && !failed && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+
+                String epdLine = line;
+                int number = lineNumber;
+                pendingLines.add(executor.submit(() -> runLine(number, epdLine)));
+
+                while (success && !pendingLines.isEmpty() && (pendingLines.size() > 2 * threads || pendingLines.peek().isDone())) {
+                    success = printResult(pendingLines.poll().get());
+                }
+            }
+            // When a line failed, the lines before it are still printed
+            while (success && !pendingLines.isEmpty()) {
+                success = printResult(pendingLines.poll().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        time = System.nanoTime() - time;
+        System.out.println((success ? "Perft suite succeed" : "Perft suite failed") + " : " + passedLines + " lines passed in " + ChessMain.longFormat.format(time / 1000000) + "ms ("
+                + ChessMain.longFormat.format(passedNodes * 1000000000L / Math.max(1, time)) + " nodes/s on " + threads + " threads)");
+        return success;
+    }
+
+    private LineResult runLine(int lineNumber, String line){
+        String[] fields = line.split(";");
+        String fen = fields[0].trim();
+        IntegerChessBoard board = new IntegerChessBoard(fen);
+
+        long nodes = 0;
+        long time = System.nanoTime();
+        int lastDepth = 0;
+        for (int i = 1; i < fields.length; i++) {
+            if (failed) {
+                // Another line failed : this one is not finished
+                return new LineResult(LineStatus.STOPPED, lineNumber, fen, lastDepth, 0, 0, nodes, System.nanoTime() - time);
+            }
+            String[] depthField = fields[i].trim().split("\\s+");
+            int depth = Integer.parseInt(depthField[0].substring(1));
+            long expected = Long.parseLong(depthField[1]);
+            if (depth > maxDepth) continue;
+
+            long result = board.perft(depth, -1);
+            nodes += result;
+            if (result != expected) {
+                failed = true;
+                return new LineResult(LineStatus.FAILED, lineNumber, fen, depth, result, expected, nodes, System.nanoTime() - time);
+            }
+            lastDepth = depth;
+        }
+        return new LineResult(LineStatus.PASSED, lineNumber, fen, lastDepth, 0, 0, nodes, System.nanoTime() - time);
+    }
+
+    /**
+     * @return If the line did not fail
+     */
+    private boolean printResult(LineResult result){
+        String speed = ChessMain.longFormat.format(result.time() / 1000000) + "ms (" + ChessMain.longFormat.format(result.nodes() * 1000000000L / Math.max(1, result.time())) + " nodes/s)";
+        switch (result.status()) {
+            case PASSED -> {
+                System.out.println("Line " + result.lineNumber() + " succeed up to depth " + result.depth() + " in " + speed);
+                passedLines++;
+                passedNodes += result.nodes();
+                return true;
+            }
+            case STOPPED -> {
+                System.out.println("Line " + result.lineNumber() + " stopped after depth " + result.depth());
+                return true;
+            }
+            default -> {
+                System.out.println("Line " + result.lineNumber() + " failed at depth " + result.depth() + " (" + ChessMain.longFormat.format(result.result()) + " instead of "
+                        + ChessMain.longFormat.format(result.expected()) + ") in " + speed + " : " + result.fen());
+                failedLineNumber = result.lineNumber();
+                divideDifferences = printDivideDifferences(result.fen(), result.depth());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Prints the moves whose node count differs from the one of the reference board, to find the wrong sub tree
+     * @return The number of moves whose count differs
+     */
+    private static int printDivideDifferences(String fen, int depth){
+        Map<String, Long> divide = new IntegerChessBoard(fen).divide(depth);
+        QuickChessBoard referenceBoard = new QuickChessBoard();
+        referenceBoard.loadFen(fen);
+        Map<String, Long> referenceDivide = referenceBoard.divide(depth);
+
+        if (divide.equals(referenceDivide)) {
+            System.out.println("  The divide is the same as the one of the reference board, the expected count may be wrong");
+            return 0;
+        }
+
+        TreeSet<String> moves = new TreeSet<>(divide.keySet());
+        moves.addAll(referenceDivide.keySet());
+        int differences = 0;
+        for (String move : moves) {
+            Long count = divide.get(move);
+            Long referenceCount = referenceDivide.get(move);
+            if (!Objects.equals(count, referenceCount)) {
+                System.out.println("  " + move + " : " + (count == null ? "missing" : count) + " instead of " + (referenceCount == null ? "illegal" : referenceCount));
+                differences++;
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * @return The number of lines which succeed during the last run, before the failing one if any
+     */
+    public int getPassedLines() {
+        return passedLines;
+    }
+
+    /**
+     * @return The number in the file of the line which failed during the last run, -1 if all the lines succeed
+     */
+    public int getFailedLineNumber() {
+        return failedLineNumber;
+    }
+
+    /**
+     * @return The number of moves of the failing line whose divide differs from the one of {@link QuickChessBoard}, -1 if no line failed
+     */
+    public int getDivideDifferences() {
+        return divideDifferences;
+    }
+
+    private enum LineStatus {
+        PASSED,
+        FAILED,
+        STOPPED // Another line failed before this one was finished
+    }
+
+    /**
+     * @param result The node count found at the failing depth, only for a failed line
+     * @param expected The node count expected at the failing depth, only for a failed line
+     */
+    private record LineResult(LineStatus status, int lineNumber, String fen, int depth, long result, long expected, long nodes, long time) {
+    }
+}
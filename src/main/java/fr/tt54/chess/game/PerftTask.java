@@ -0,0 +1,77 @@
+package fr.tt54.chess.game;
+
+import java.io.Serial;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task counting the leaf nodes below a position. The task owns its board, a copy of the board of its parent
+ * task with one more move played, so the tasks never share any state.
+ * The tasks are split on the first plies only, the deeper plies are counted by the sequential {@link IntegerChessBoard#perft(int, int)}
+ */
+class PerftTask extends RecursiveTask<Long> {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static final int minSplitDepth = 3; // Below this depth, a subtree is too small to be worth a task
+
+    private final transient IntegerChessBoard board; // The tasks are never serialized
+    private final int depth;
+    private final int splitPlies;
+    private int[] moves;
+    private long[] moveCounts;
+    private int movesCount;
+
+    /**
+     * @param splitPlies The number of plies on which the work is split in sub tasks. The task itself is always split if this
+     *                   is not 0, its sub tasks only if they are deep enough
+     */
+    PerftTask(IntegerChessBoard board, int depth, int splitPlies){
+        this.board = board;
+        this.depth = depth;
+        this.splitPlies = splitPlies;
+    }
+
+    @Override
+    protected Long compute() {
+        if(splitPlies == 0 || depth == 0){
+            return board.perft(depth, -1);
+        }
+
+        moves = new int[IntegerChessBoard.MAX_MOVES];
+        movesCount = board.fillAllowedMoves(moves);
+        PerftTask[] tasks = new PerftTask[movesCount];
+        for(int i = 0; i < movesCount; i++){
+            IntegerChessBoard child = new IntegerChessBoard(board);
+            child.playMove(moves[i]);
+            tasks[i] = new PerftTask(child, depth - 1, depth - 1 >= minSplitDepth ? splitPlies - 1 : 0);
+        }
+        invokeAll(tasks);
+
+        // The results are merged in the generation order, so the divide is the same at each run
+        moveCounts = new long[movesCount];
+        long count = 0;
+        for(int i = 0; i < movesCount; i++){
+            moveCounts[i] = tasks[i].join();
+            count += moveCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * @return The moves of the position in their generation order, once the task is done and if it was split
+     */
+    int[] getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return The number of leaf nodes below each move of {@link #getMoves()}
+     */
+    long[] getMoveCounts() {
+        return moveCounts;
+    }
+
+    int getMovesCount() {
+        return movesCount;
+    }
+}
@@ -641,7 +641,7 @@ public class QuickChessBoard extends AbstractChessBoard{
         String[] args = fen.split(" ");
 
         String[] pos = args[0].split("/");
-        assert pos.length != 8;
+        assert pos.length == 8;
 
         int column = 0;
         int row = 7;
@@ -0,0 +1,58 @@
+package fr.tt54.chess.game;
+
+import java.util.Random;
+
+/**
+ * Random keys used to compute the 64 bits hash of a position. A position hash is the xor of the keys of its pieces,
+ * of its castles, of its en passant file and of the side key if black is to play.
+ * The keys are generated with a fixed seed so a position always has the same hash.
+ */
+public class Zobrist {
+
+    private static final long[] pieceKeys = new long[13 * 64]; // [(piece id + 6) * 64 + position]
+    private static final long[] castleKeys = new long[16]; // [castles]
+    private static final long[] enPassantKeys = new long[8]; // [column]
+    private static final long blackToPlayKey;
+
+    static {
+        Random random = new Random(20241025L);
+        for(int id = 0; id < 13; id++){
+            if(id == 6) continue; // Empty square
+            for(int position = 0; position < 64; position++){
+                pieceKeys[id * 64 + position] = random.nextLong();
+            }
+        }
+        // Each castle right gets a key, and a combination of rights is the xor of its keys
+        long[] castleRightKeys = new long[] {random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong()};
+        for(int castles = 0; castles < 16; castles++){
+            for(int i = 0; i < 4; i++){
+                if((castles & (1 << i)) != 0){
+                    castleKeys[castles] ^= castleRightKeys[i];
+                }
+            }
+        }
+        for(int column = 0; column < 8; column++){
+            enPassantKeys[column] = random.nextLong();
+        }
+        blackToPlayKey = random.nextLong();
+    }
+
+    public static long getPieceKey(int pieceId, int position){
+        return pieceKeys[((pieceId + 6) << 6) | position];
+    }
+
+    public static long getCastleKey(int castles){
+        return castleKeys[castles];
+    }
+
+    /**
+     * @param enPassant The position of the pawn that can be taken en passant, 0 if there is none
+     */
+    public static long getEnPassantKey(int enPassant){
+        return enPassant == 0 ? 0L : enPassantKeys[IntegerChessBoard.getColumn(enPassant)];
+    }
+
+    public static long getBlackToPlayKey(){
+        return blackToPlayKey;
+    }
+}
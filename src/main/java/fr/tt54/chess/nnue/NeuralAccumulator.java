@@ -0,0 +1,177 @@
+package fr.tt54.chess.nnue;
+
+import fr.tt54.chess.game.ChessPiece;
+import fr.tt54.chess.game.IntegerChessBoard;
+
+import java.util.Arrays;
+
+/**
+ * The outputs of the input layer of a {@link NeuralNetwork} for one board, one accumulator per player. The board adds or
+ * subtracts the weights of a feature when a piece appears or disappears, so the input layer is never computed again.
+ * The features of a player depend on the position of its king, so a move of the king marks the accumulator of its player
+ * to be refreshed from the board at the next evaluation.
+ * <br>
+ * The accumulators are kept in a stack with one entry per played move : {@link #push(IntegerChessBoard)} copies the
+ * accumulators before a move updates them, and {@link #pop()} gets back the ones before the move when it is undone, so
+ * undoing a move costs nothing and never needs a refresh. A position refreshes its accumulators before its first move is
+ * played, so after a king move only the positions reached from it are refreshed, once each
+ */
+public class NeuralAccumulator {
+
+    private static final int white = 0;
+    private static final int black = 1;
+    private static final int initialStackSize = 128;
+
+    private final NeuralNetwork network;
+    private final int hiddenSize;
+    private short[][][] stack; // [entry][player][hidden]
+    private boolean[][] validStack; // [entry][player], false when the accumulator should be refreshed
+    private int top; // The entry of the current position
+    private final int[][] buffers;
+
+    public NeuralAccumulator(NeuralNetwork network){
+        this.network = network;
+        this.hiddenSize = network.getHiddenSize();
+        this.stack = new short[initialStackSize][2][hiddenSize];
+        this.validStack = new boolean[initialStackSize][2];
+        this.buffers = network.createBuffers();
+    }
+
+    /**
+     * Copies the current accumulators of another board, so it can be searched by another thread
+     */
+    public NeuralAccumulator(NeuralAccumulator other){
+        this(other.network);
+        copyEntry(other.stack[other.top], other.validStack[other.top], stack[0], validStack[0]);
+    }
+
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Marks both accumulators to be refreshed, for example when a new position is loaded
+     */
+    public void invalidate(){
+        validStack[top][white] = false;
+        validStack[top][black] = false;
+    }
+
+    /**
+     * Saves the accumulators before a move is played, the move then updating a copy of them
+     * @param board The board before the move, refreshing the accumulators marked to be refreshed
+     */
+    public void push(IntegerChessBoard board){
+        if(!validStack[top][white]) refresh(board, white);
+        if(!validStack[top][black]) refresh(board, black);
+
+        if(top + 1 == stack.length){
+            // Only reached by games longer than the stack, never during a search
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+            validStack = Arrays.copyOf(validStack, 2 * validStack.length);
+            for(int i = top + 1; i < stack.length; i++){
+                stack[i] = new short[2][hiddenSize];
+                validStack[i] = new boolean[2];
+            }
+        }
+        copyEntry(stack[top], validStack[top], stack[top + 1], validStack[top + 1]);
+        top++;
+    }
+
+    /**
+     * Gets back the accumulators saved before the last played move, when it is undone
+     */
+    public void pop(){
+        top--;
+    }
+
+    private static void copyEntry(short[][] values, boolean[] valid, short[][] copy, boolean[] copyValid){
+        for(int player = white; player <= black; player++){
+            copyValid[player] = valid[player];
+            System.arraycopy(values[player], 0, copy[player], 0, values[player].length);
+        }
+    }
+
+    public void addPiece(int pieceId, int position, int whiteKingPosition, int blackKingPosition){
+        updatePiece(pieceId, position, whiteKingPosition, blackKingPosition, 1);
+    }
+
+    public void removePiece(int pieceId, int position, int whiteKingPosition, int blackKingPosition){
+        updatePiece(pieceId, position, whiteKingPosition, blackKingPosition, -1);
+    }
+
+    public void movePiece(int pieceId, int previousPosition, int newPosition, int whiteKingPosition, int blackKingPosition){
+        boolean[] valid = validStack[top];
+        if(pieceId == 6 || pieceId == -6){
+            valid[pieceId > 0 ? white : black] = false;
+            return;
+        }
+        short[] weights = network.getFeatureWeights();
+        for(int player = white; player <= black; player++){
+            if(!valid[player]) continue;
+            boolean whitePerspective = player == white;
+            int kingPosition = whitePerspective ? whiteKingPosition : blackKingPosition;
+            int removed = NeuralNetwork.getFeatureIndex(whitePerspective, kingPosition, pieceId, previousPosition) * hiddenSize;
+            int added = NeuralNetwork.getFeatureIndex(whitePerspective, kingPosition, pieceId, newPosition) * hiddenSize;
+            short[] accumulator = stack[top][player];
+            for(int i = 0; i < hiddenSize; i++){
+                accumulator[i] += (short) (weights[added + i] - weights[removed + i]);
+            }
+        }
+    }
+
+    private void updatePiece(int pieceId, int position, int whiteKingPosition, int blackKingPosition, int sign){
+        boolean[] valid = validStack[top];
+        if(pieceId == 6 || pieceId == -6){
+            valid[pieceId > 0 ? white : black] = false;
+            return;
+        }
+        for(int player = white; player <= black; player++){
+            if(!valid[player]) continue;
+            boolean whitePerspective = player == white;
+            int feature = NeuralNetwork.getFeatureIndex(whitePerspective, whitePerspective ? whiteKingPosition : blackKingPosition, pieceId, position);
+            addFeature(stack[top][player], feature, sign);
+        }
+    }
+
+    private void addFeature(short[] accumulator, int feature, int sign){
+        short[] weights = network.getFeatureWeights();
+        int offset = feature * hiddenSize;
+        for(int i = 0; i < hiddenSize; i++){
+            accumulator[i] += (short) (sign * weights[offset + i]);
+        }
+    }
+
+    /**
+     * Computes again the accumulator of a player from the pieces of the board
+     */
+    private void refresh(IntegerChessBoard board, int player){
+        boolean whitePerspective = player == white;
+        int kingPosition = Long.numberOfTrailingZeros(board.getPieceBitboard(whitePerspective ? ChessPiece.WHITE_KING : ChessPiece.BLACK_KING));
+        short[] accumulator = stack[top][player];
+        System.arraycopy(network.getFeatureBiases(), 0, accumulator, 0, hiddenSize);
+        for(int unsignedId = 1; unsignedId <= 5; unsignedId++){
+            for(int sign = -1; sign <= 1; sign += 2){
+                for(long positions = board.getPieceBitboard(ChessPiece.getPiece(sign * unsignedId)); positions != 0; positions &= positions - 1){
+                    addFeature(accumulator, NeuralNetwork.getFeatureIndex(whitePerspective, kingPosition, sign * unsignedId, Long.numberOfTrailingZeros(positions)), 1);
+                }
+            }
+        }
+        validStack[top][player] = true;
+    }
+
+    /**
+     * @return The evaluation of the position of the board for white, in centipawns
+     */
+    public int evaluate(IntegerChessBoard board){
+        boolean[] valid = validStack[top];
+        if(!valid[white]) refresh(board, white);
+        if(!valid[black]) refresh(board, black);
+
+        short[][] values = stack[top];
+        if(board.isWhiteToPlay()){
+            return network.propagate(values[white], values[black], buffers);
+        }
+        return -network.propagate(values[black], values[white], buffers);
+    }
+}
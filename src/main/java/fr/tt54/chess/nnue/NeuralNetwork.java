@@ -0,0 +1,237 @@
+package fr.tt54.chess.nnue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Small quantized neural network evaluating a position for the player to move, in the spirit of NNUE.
+ * The input layer uses HalfKP features : one feature per king position, piece and position, for each piece other than the
+ * kings, seen from each player. Its outputs are the accumulators of a {@link NeuralAccumulator}, that the board updates at
+ * each move instead of computing them again. The accumulator of the player to move and the one of its opponent, clipped
+ * between 0 and 127, feed two dense layers with a clipped ReLU, then a linear output.
+ * <br>
+ * Quantization : the feature weights and biases are 16 bits integers scaled by 127, so a clipped accumulator of 127 is an
+ * activation of 1. The dense weights are 8 bits integers scaled by 64 and their biases are scaled by 127 * 64, so each
+ * dense layer divides its sums by 64 to get back to the activations scale.
+ * <br>
+ * File format, big endian as written by {@link #save(Path)} : the magic number, the version, the hidden size, the sizes
+ * of the two dense layers, then the feature biases and weights as shorts, and for each dense layer and the output, its
+ * weights as bytes and its biases as ints
+ */
+public class NeuralNetwork {
+
+    public static final int kingPositions = 64;
+    public static final int pieceIndexes = 10; // The pawns, knights, bishops, rooks and queens of the player, then the ones of the opponent
+    public static final int featuresPerKing = pieceIndexes * 64;
+    public static final int featuresCount = kingPositions * featuresPerKing;
+
+    public static final int activationScale = 127;
+    public static final int weightShift = 6; // The dense weights are scaled by 1 << weightShift
+    public static final int outputScale = 600; // Centipawns of an output of 1
+
+    private static final int magic = 0x4a434e4e; // "JCNN"
+    private static final int version = 1;
+
+    private static boolean vectorApiEnabled = isVectorApiAvailable();
+
+    private final int hiddenSize;
+    private final int firstSize;
+    private final int secondSize;
+
+    private final short[] featureBiases; // [hidden]
+    private final short[] featureWeights; // [feature * hiddenSize + hidden], the columns added to the accumulators
+    // The dense weights are read from bytes, but kept as ints so the products can be computed without conversion
+    private final int[] firstWeights; // [output * 2 * hiddenSize + input]
+    private final int[] firstBiases;
+    private final int[] secondWeights; // [output * firstSize + input]
+    private final int[] secondBiases;
+    private final int[] outputWeights; // [input]
+    private final int outputBias;
+
+    public NeuralNetwork(int hiddenSize, int firstSize, int secondSize, short[] featureBiases, short[] featureWeights,
+                         int[] firstWeights, int[] firstBiases, int[] secondWeights, int[] secondBiases, int[] outputWeights, int outputBias){
+        if(featureBiases.length != hiddenSize || featureWeights.length != featuresCount * hiddenSize
+                || firstWeights.length != firstSize * 2 * hiddenSize || firstBiases.length != firstSize
+                || secondWeights.length != secondSize * firstSize || secondBiases.length != secondSize || outputWeights.length != secondSize){
+            throw new IllegalArgumentException("The layers do not match the sizes " + hiddenSize + ", " + firstSize + " and " + secondSize);
+        }
+        this.hiddenSize = hiddenSize;
+        this.firstSize = firstSize;
+        this.secondSize = secondSize;
+        this.featureBiases = featureBiases;
+        this.featureWeights = featureWeights;
+        this.firstWeights = firstWeights;
+        this.firstBiases = firstBiases;
+        this.secondWeights = secondWeights;
+        this.secondBiases = secondBiases;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+    }
+
+    public static NeuralNetwork load(Path file) throws IOException {
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+            if(input.readInt() != magic){
+                throw new IOException(file + " is not a neural network file");
+            }
+            int fileVersion = input.readInt();
+            if(fileVersion != version){
+                throw new IOException("Unsupported neural network version " + fileVersion + " in " + file);
+            }
+            int hiddenSize = input.readInt();
+            int firstSize = input.readInt();
+            int secondSize = input.readInt();
+
+            short[] featureBiases = readShorts(input, hiddenSize);
+            short[] featureWeights = readShorts(input, featuresCount * hiddenSize);
+            int[] firstWeights = readBytes(input, firstSize * 2 * hiddenSize);
+            int[] firstBiases = readInts(input, firstSize);
+            int[] secondWeights = readBytes(input, secondSize * firstSize);
+            int[] secondBiases = readInts(input, secondSize);
+            int[] outputWeights = readBytes(input, secondSize);
+            int outputBias = input.readInt();
+
+            return new NeuralNetwork(hiddenSize, firstSize, secondSize, featureBiases, featureWeights,
+                    firstWeights, firstBiases, secondWeights, secondBiases, outputWeights, outputBias);
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+            output.writeInt(magic);
+            output.writeInt(version);
+            output.writeInt(hiddenSize);
+            output.writeInt(firstSize);
+            output.writeInt(secondSize);
+            for(short value : featureBiases) output.writeShort(value);
+            for(short value : featureWeights) output.writeShort(value);
+            for(int value : firstWeights) output.writeByte(value);
+            for(int value : firstBiases) output.writeInt(value);
+            for(int value : secondWeights) output.writeByte(value);
+            for(int value : secondBiases) output.writeInt(value);
+            for(int value : outputWeights) output.writeByte(value);
+            output.writeInt(outputBias);
+        }
+    }
+
+    private static short[] readShorts(DataInputStream input, int length) throws IOException {
+        short[] values = new short[length];
+        for(int i = 0; i < length; i++){
+            values[i] = input.readShort();
+        }
+        return values;
+    }
+
+    private static int[] readBytes(DataInputStream input, int length) throws IOException {
+        int[] values = new int[length];
+        for(int i = 0; i < length; i++){
+            values[i] = input.readByte();
+        }
+        return values;
+    }
+
+    private static int[] readInts(DataInputStream input, int length) throws IOException {
+        int[] values = new int[length];
+        for(int i = 0; i < length; i++){
+            values[i] = input.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * @param whitePerspective The player seeing the board : the positions are mirrored for black, so each player sees its pieces at the bottom
+     * @param kingPosition The position of the king of this player
+     * @param pieceId The signed id of a piece other than a king
+     * @return The index of the feature of this piece, its weights being at the index times the hidden size
+     */
+    public static int getFeatureIndex(boolean whitePerspective, int kingPosition, int pieceId, int position){
+        int orientation = whitePerspective ? 0 : 56;
+        int pieceIndex = Math.abs(pieceId) - 1 + ((pieceId > 0) == whitePerspective ? 0 : 5);
+        return (((kingPosition ^ orientation) * pieceIndexes + pieceIndex) << 6) | (position ^ orientation);
+    }
+
+    /**
+     * Runs the dense layers
+     * @param buffers The buffers of the activations, see {@link #createBuffers()}
+     * @return The evaluation of the position in centipawns, for the player of the first accumulator
+     */
+    int propagate(short[] playerAccumulator, short[] opponentAccumulator, int[][] buffers){
+        int[] input = buffers[0];
+        int[] firstOutput = buffers[1];
+        int[] secondOutput = buffers[2];
+
+        if(vectorApiEnabled){
+            VectorLayers.clip(playerAccumulator, input, 0, activationScale);
+            VectorLayers.clip(opponentAccumulator, input, hiddenSize, activationScale);
+        } else {
+            for(int i = 0; i < hiddenSize; i++){
+                input[i] = Math.min(Math.max(playerAccumulator[i], 0), activationScale);
+                input[hiddenSize + i] = Math.min(Math.max(opponentAccumulator[i], 0), activationScale);
+            }
+        }
+        propagateLayer(input, 2 * hiddenSize, firstWeights, firstBiases, firstOutput, firstSize);
+        propagateLayer(firstOutput, firstSize, secondWeights, secondBiases, secondOutput, secondSize);
+
+        long output = outputBias + dot(secondOutput, outputWeights, 0, secondSize);
+        return (int) (output * outputScale / (activationScale << weightShift));
+    }
+
+    private static void propagateLayer(int[] input, int inputSize, int[] weights, int[] biases, int[] output, int outputSize){
+        for(int i = 0; i < outputSize; i++){
+            int sum = biases[i] + dot(input, weights, i * inputSize, inputSize);
+            output[i] = Math.min(Math.max(sum >> weightShift, 0), activationScale);
+        }
+    }
+
+    private static int dot(int[] input, int[] weights, int weightsOffset, int length){
+        if(vectorApiEnabled){
+            return VectorLayers.dot(input, weights, weightsOffset, length);
+        }
+        int sum = 0;
+        for(int i = 0; i < length; i++){
+            sum += input[i] * weights[weightsOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return The activation buffers of one evaluation, owned by a single thread
+     */
+    int[][] createBuffers(){
+        return new int[][]{new int[2 * hiddenSize], new int[firstSize], new int[secondSize]};
+    }
+
+    public int getHiddenSize() {
+        return hiddenSize;
+    }
+
+    short[] getFeatureBiases() {
+        return featureBiases;
+    }
+
+    short[] getFeatureWeights() {
+        return featureWeights;
+    }
+
+    /**
+     * @return If the dense layers can use the vector API : the JVM should be started with --add-modules jdk.incubator.vector
+     */
+    public static boolean isVectorApiAvailable(){
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    public static boolean isVectorApiEnabled(){
+        return vectorApiEnabled;
+    }
+
+    /**
+     * @param enabled If the dense layers use the vector API when it is available, instead of the scalar loops
+     */
+    public static void setVectorApiEnabled(boolean enabled){
+        vectorApiEnabled = enabled && isVectorApiAvailable();
+    }
+}
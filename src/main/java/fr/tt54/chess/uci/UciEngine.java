@@ -0,0 +1,293 @@
+package fr.tt54.chess.uci;
+
+import fr.tt54.chess.bots.AlphaBetaBot;
+import fr.tt54.chess.bots.SearchListener;
+import fr.tt54.chess.game.IntegerChessBoard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless front-end of {@link AlphaBetaBot} speaking the UCI protocol, so the engine can be used by the chess GUIs and
+ * tournament managers. The commands are read by the thread calling {@link #run()} while the searches run on their own
+ * thread, so a "stop" is handled during the search
+ */
+public class UciEngine implements SearchListener {
+
+    private static final String startFen = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final int defaultHashSizeMb = 16;
+    private static final int maxHashSizeMb = 4096;
+    private static final int maxThreads = 64;
+    private static final int maxEvaluationCacheSizeMb = 1024;
+
+    private final BufferedReader input;
+    private final PrintStream output;
+    private final ExecutorService searchExecutor;
+
+    private IntegerChessBoard board = new IntegerChessBoard(startFen);
+    private AlphaBetaBot bot;
+    private int hashSizeMb = defaultHashSizeMb;
+    private int threads = 1;
+    private int evaluationCacheSizeMb = 0;
+
+    private Future<?> search;
+    private final Object stopLock = new Object();
+    private volatile boolean stopReceived; // Set under stopLock by a "stop", ends the wait for the stop of an infinite search
+    private volatile boolean infinite; // The best move of an infinite search is only sent after a "stop"
+
+    public UciEngine(InputStream input, PrintStream output){
+        this.input = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        this.output = output;
+        this.searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "UCI search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        createBot();
+    }
+
+    /**
+     * Reads and executes the commands until "quit" or the end of the input
+     */
+    public void run() throws IOException {
+        String line;
+        while ((line = input.readLine()) != null) {
+            String[] tokens = line.trim().split("\\s+");
+            switch (tokens[0]) {
+                case "uci" -> {
+                    send("id name JavaChess");
+                    send("id author TT54");
+                    send("option name Hash type spin default " + defaultHashSizeMb + " min 1 max " + maxHashSizeMb);
+                    send("option name Threads type spin default 1 min 1 max " + maxThreads);
+                    send("option name EvalCache type spin default 0 min 0 max " + maxEvaluationCacheSizeMb);
+                    send("uciok");
+                }
+                case "isready" -> send("readyok");
+                case "setoption" -> {
+                    waitForSearch();
+                    setOption(tokens);
+                }
+                case "ucinewgame" -> {
+                    waitForSearch();
+                    bot.clearHash();
+                }
+                case "position" -> {
+                    waitForSearch();
+                    setPosition(tokens);
+                }
+                case "go" -> {
+                    waitForSearch();
+                    go(tokens);
+                }
+                case "stop" -> stopSearch();
+                case "quit" -> {
+                    stopSearch();
+                    waitForSearch();
+                    searchExecutor.shutdownNow();
+                    bot.close();
+                    return;
+                }
+                default -> {
+                    // Unknown commands are ignored, as asked by the protocol
+                }
+            }
+        }
+        stopSearch();
+        waitForSearch();
+        searchExecutor.shutdownNow();
+        bot.close();
+    }
+
+    private void createBot(){
+        if(bot != null){
+            bot.close();
+        }
+        bot = new AlphaBetaBot(true, Integer.MAX_VALUE, hashSizeMb);
+        bot.setThreads(threads);
+        bot.setEvaluationCacheSize(evaluationCacheSizeMb);
+        bot.setSearchListener(this);
+    }
+
+    /**
+     * "setoption name Hash value 64", the sizes being in MB. The EvalCache option sets the size of the evaluation cache,
+     * 0 to evaluate each position without cache
+     */
+    private void setOption(String[] tokens){
+        if (tokens.length < 5 || !tokens[1].equals("name") || !tokens[3].equals("value")) return;
+
+        try {
+            int value = Integer.parseInt(tokens[4]);
+            switch (tokens[2].toLowerCase()) {
+                case "hash" -> {
+                    hashSizeMb = Math.max(1, Math.min(value, maxHashSizeMb));
+                    createBot();
+                }
+                case "threads" -> {
+                    threads = Math.max(1, Math.min(value, maxThreads));
+                    bot.setThreads(threads);
+                }
+                case "evalcache" -> {
+                    evaluationCacheSizeMb = Math.max(0, Math.min(value, maxEvaluationCacheSizeMb));
+                    bot.setEvaluationCacheSize(evaluationCacheSizeMb);
+                }
+                default -> send("info string Unknown option " + tokens[2]);
+            }
+        } catch (NumberFormatException e) {
+            send("info string Invalid value " + tokens[4]);
+        }
+    }
+
+    /**
+     * "position startpos moves e2e4 e7e5" or "position fen [fen] moves e2e4"
+     */
+    private void setPosition(String[] tokens){
+        int index = 1;
+        String fen;
+        if (tokens.length > 1 && tokens[1].equals("startpos")) {
+            fen = startFen;
+            index = 2;
+        } else if (tokens.length > 1 && tokens[1].equals("fen")) {
+            StringBuilder builder = new StringBuilder();
+            index = 2;
+            while (index < tokens.length && !tokens[index].equals("moves")) {
+                builder.append(tokens[index++]).append(' ');
+            }
+            fen = builder.toString().trim();
+        } else {
+            return;
+        }
+
+        IntegerChessBoard newBoard = new IntegerChessBoard(fen);
+        if (index < tokens.length && tokens[index].equals("moves")) {
+            for (index++; index < tokens.length; index++) {
+                int move = newBoard.getAllowedMove(tokens[index]);
+                if (move == -1) {
+                    send("info string Illegal move " + tokens[index]);
+                    break;
+                }
+                newBoard.playMove(move);
+            }
+        }
+        board = newBoard;
+    }
+
+    /**
+     * "go depth 10", "go movetime 1000", "go wtime 60000 btime 60000 winc 1000 binc 1000", "go nodes 100000" or "go infinite"
+     */
+    private void go(String[] tokens){
+        int depth = Integer.MAX_VALUE;
+        long moveTime = -1;
+        long nodes = -1;
+        long whiteTime = -1;
+        long blackTime = -1;
+        long whiteIncrement = 0;
+        long blackIncrement = 0;
+        boolean infinite = false;
+
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                switch (tokens[i]) {
+                    case "depth" -> depth = Integer.parseInt(tokens[++i]);
+                    case "movetime" -> moveTime = Long.parseLong(tokens[++i]);
+                    case "nodes" -> nodes = Long.parseLong(tokens[++i]);
+                    case "wtime" -> whiteTime = Long.parseLong(tokens[++i]);
+                    case "btime" -> blackTime = Long.parseLong(tokens[++i]);
+                    case "winc" -> whiteIncrement = Long.parseLong(tokens[++i]);
+                    case "binc" -> blackIncrement = Long.parseLong(tokens[++i]);
+                    case "movestogo" -> i++;
+                    case "infinite" -> infinite = true;
+                    default -> {
+                        // "ponder", "searchmoves" and "mate" are not supported, the search is then only limited by the other parameters
+                    }
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            send("info string Invalid go command");
+            return;
+        }
+
+        boolean white = board.isWhiteToPlay();
+        bot.setDepth(depth);
+        bot.setMoveTime(infinite ? -1 : moveTime);
+        bot.setNodeLimit(infinite ? -1 : nodes);
+        bot.setClock(infinite ? -1 : white ? whiteTime : blackTime, white ? whiteIncrement : blackIncrement);
+
+        // The stop count is taken before the search is submitted, so a "stop" read after this "go" always stops this search
+        this.stopReceived = false;
+        this.infinite = infinite;
+        int stopCount = bot.getStopCount();
+        IntegerChessBoard searchedBoard = new IntegerChessBoard(board);
+        search = searchExecutor.submit(() -> {
+            int bestMove = bot.getBestMove(searchedBoard, stopCount);
+            synchronized (stopLock) {
+                while (this.infinite && !stopReceived) {
+                    try {
+                        stopLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            send("bestmove " + (bestMove == -1 ? "0000" : IntegerChessBoard.getUciMoveString(bestMove)));
+        });
+    }
+
+    private void stopSearch(){
+        synchronized (stopLock) {
+            stopReceived = true;
+            stopLock.notifyAll();
+        }
+        bot.stop();
+    }
+
+    private void waitForSearch(){
+        if (search == null) return;
+        try {
+            search.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        search = null;
+    }
+
+    @Override
+    public void onIteration(int depth, int eval, long nodes, long timeNs, int[] principalVariation) {
+        StringBuilder builder = new StringBuilder("info depth ").append(depth).append(" score ").append(getScoreString(eval))
+                .append(getProgressString(nodes, timeNs)).append(" pv");
+        for (int move : principalVariation) {
+            builder.append(' ').append(IntegerChessBoard.getUciMoveString(move));
+        }
+        send(builder.toString());
+    }
+
+    @Override
+    public void onProgress(long nodes, long timeNs) {
+        send("info" + getProgressString(nodes, timeNs));
+    }
+
+    private static String getScoreString(int eval){
+        if (Math.abs(eval) > AlphaBetaBot.mateValue - 1000) {
+            // The mate scores are the mate value minus the number of plies until the mate
+            int plies = AlphaBetaBot.mateValue - Math.abs(eval);
+            return "mate " + (eval > 0 ? (plies + 1) / 2 : -(plies / 2));
+        }
+        return "cp " + eval;
+    }
+
+    private static String getProgressString(long nodes, long timeNs){
+        return " nodes " + nodes + " nps " + (nodes * 1000000000L / Math.max(1, timeNs)) + " time " + (timeNs / 1000000);
+    }
+
+    private synchronized void send(String message){
+        output.println(message);
+        output.flush();
+    }
+}
@@ -0,0 +1,57 @@
+package fr.tt54.chess;
+
+import fr.tt54.chess.bots.AlphaBetaBot;
+import fr.tt54.chess.game.IntegerChessBoard;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Uses the thread allocation counters to check that the perft and the alpha-beta search do not allocate anything once warmed up
+ */
+public class AllocationTest {
+
+    private static final int warmUpRuns = 20;
+
+    private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void perftDoesNotAllocate(){
+        // The warm up also allocates the move buffers of the perft, kept by the board
+        IntegerChessBoard board = new IntegerChessBoard(IntegerChessBoard.perftFens[1]);
+        for(int i = 0; i < warmUpRuns; i++){
+            board.perft(3, -1);
+        }
+        board.perft(4, -1);
+
+        long allocatedBytes = getAllocatedBytes();
+        long nodes = board.perft(4, -1);
+        allocatedBytes = getAllocatedBytes() - allocatedBytes;
+
+        assertEquals(4085603, nodes);
+        assertEquals(0, allocatedBytes, "Bytes allocated by a perft of " + nodes + " nodes");
+    }
+
+    @Test
+    public void searchDoesNotAllocate(){
+        AlphaBetaBot bot = new AlphaBetaBot(true, 4);
+        for(int i = 0; i < warmUpRuns; i++){
+            bot.clearHash();
+            bot.getBestMove(new IntegerChessBoard(IntegerChessBoard.perftFens[5]));
+        }
+
+        IntegerChessBoard board = new IntegerChessBoard(IntegerChessBoard.perftFens[5]);
+        bot.clearHash();
+        long allocatedBytes = getAllocatedBytes();
+        bot.getBestMove(board);
+        allocatedBytes = getAllocatedBytes() - allocatedBytes;
+
+        assertEquals(0, allocatedBytes, "Bytes allocated by a search of " + bot.getVisitedNodes() + " nodes");
+    }
+
+    private long getAllocatedBytes(){
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+}
@@ -0,0 +1,26 @@
+package fr.tt54.chess.bots;
+
+import fr.tt54.chess.game.IntegerChessBoard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class AlphaBetaBotTest {
+
+    @Test
+    public void closedBotCanStillSearch(){
+        try(AlphaBetaBot bot = new AlphaBetaBot(true, 4)){
+            bot.setThreads(2);
+            assertNotEquals(-1, bot.getBestMove(new IntegerChessBoard(IntegerChessBoard.perftFens[1])));
+
+            bot.close();
+            assertEquals(2, bot.getThreads());
+            assertNotEquals(-1, bot.getBestMove(new IntegerChessBoard(IntegerChessBoard.perftFens[1])));
+
+            // Closing twice is allowed, try-with-resources closing the bot once more
+            bot.close();
+            assertNotEquals(-1, bot.getBestMove(new IntegerChessBoard(IntegerChessBoard.perftFens[1])));
+        }
+    }
+}
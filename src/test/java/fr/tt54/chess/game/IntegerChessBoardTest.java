@@ -0,0 +1,23 @@
+package fr.tt54.chess.game;
+
+import fr.tt54.chess.bots.AlphaBetaBot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IntegerChessBoardTest {
+
+    @Test
+    public void loadFenForgetsTheAttackData(){
+        IntegerChessBoard reloaded = new IntegerChessBoard(IntegerChessBoard.perftFens[1]);
+        // The move generation fills the attack data of the first position
+        reloaded.fillAllowedMoves(new int[IntegerChessBoard.MAX_MOVES]);
+
+        for(int i = 2; i < IntegerChessBoard.perftFens.length; i++){
+            reloaded.loadFen(IntegerChessBoard.perftFens[i]);
+            IntegerChessBoard fresh = new IntegerChessBoard(IntegerChessBoard.perftFens[i]);
+            assertEquals(AlphaBetaBot.evaluatePosition(fresh), AlphaBetaBot.evaluatePosition(reloaded), IntegerChessBoard.perftFens[i]);
+            reloaded.fillAllowedMoves(new int[IntegerChessBoard.MAX_MOVES]);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package fr.tt54.chess.game;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PerftSuiteRunnerTest {
+
+    private static final int maxDepth = 4; // The suite goes up to the depth 6, too long for a test run
+
+    @Test
+    public void suiteSucceeds() throws IOException {
+        PerftSuiteRunner runner = new PerftSuiteRunner(2, maxDepth);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Objects.requireNonNull(PerftSuiteRunnerTest.class.getResourceAsStream("/perft_suite.epd")), StandardCharsets.UTF_8))) {
+            assertTrue(runner.run(reader));
+        }
+        assertEquals(36, runner.getPassedLines());
+        assertEquals(-1, runner.getFailedLineNumber());
+    }
+
+    @Test
+    public void wrongLineStopsTheSuite() throws IOException {
+        // The third line expects 8903 nodes at depth 3 instead of 8902
+        String suite = """
+                # Perft suite with a wrong count
+                4k3/8/8/8/8/8/8/4K2R w K - ;D1 15 ;D2 66 ;D3 1197
+                rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - ;D1 20 ;D2 400 ;D3 8903 ;D4 197281
+                8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - ;D1 14 ;D2 191 ;D3 2812 ;D4 43238
+                r3k2r/8/8/8/8/8/8/R3K2R w KQkq - ;D1 26 ;D2 568 ;D3 13744 ;D4 314346
+                """;
+        PerftSuiteRunner runner = new PerftSuiteRunner(1, maxDepth);
+        assertFalse(runner.run(new BufferedReader(new StringReader(suite))));
+
+        assertEquals(1, runner.getPassedLines(), "The lines after the failing one are not counted");
+        assertEquals(3, runner.getFailedLineNumber());
+        assertEquals(0, runner.getDivideDifferences(), "The divide is the same as the one of the reference board");
+    }
+}
@@ -0,0 +1,482 @@
+package fr.tt54.chess.nnue;
+
+import fr.tt54.chess.ChessMain;
+import fr.tt54.chess.bots.AlphaBetaBot;
+import fr.tt54.chess.game.ChessPiece;
+import fr.tt54.chess.game.IntegerChessBoard;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+/**
+ * Trains a {@link NeuralNetwork} to reproduce an evaluation function on positions of generated games, so a network can be
+ * built without any external data. The games start from a list of openings and mix random moves with the moves preferred
+ * by the evaluation. The positions in check are skipped, the search never using their evaluation. The other ones are all
+ * kept, tactical ones included, since the quiescence search evaluates them before resolving the captures.
+ * <br>
+ * The network is trained with floats and Adam, then quantized. While training, each feature also uses weights shared by all
+ * the king positions, so a piece on a square learns from every king position. They are added to the feature weights when
+ * the network is quantized
+ */
+public class NeuralNetworkTrainer {
+
+    private static final int batchSize = 256;
+    private static final float learningRate = 0.001f;
+    private static final float beta1 = 0.9f;
+    private static final float beta2 = 0.999f;
+    private static final float epsilon = 1e-8f;
+    private static final float maxTarget = 2000f / NeuralNetwork.outputScale; // The evaluations are clamped to 2000 centipawns
+    private static final float maxDenseWeight = 127f / (1 << NeuralNetwork.weightShift); // The largest weight stored in a byte
+    private static final int maxGamePlies = 200;
+    private static final double randomMoveRate = 0.2;
+    private static final int randomOpeningPlies = 6;
+    private static final double validationRate = 0.05;
+
+    private final int hiddenSize;
+    private final int firstSize;
+    private final int secondSize;
+    private final Random random;
+
+    private final Parameters featureWeights; // [feature * hiddenSize + hidden]
+    private final Parameters factorWeights; // [(feature % featuresPerKing) * hiddenSize + hidden], shared by the king positions
+    private final Parameters featureBiases;
+    private final Parameters firstWeights; // [output * 2 * hiddenSize + input]
+    private final Parameters firstBiases;
+    private final Parameters secondWeights; // [output * firstSize + input]
+    private final Parameters secondBiases;
+    private final Parameters outputWeights;
+    private final Parameters outputBias;
+    private final boolean[] touchedFeatures = new boolean[NeuralNetwork.featuresCount]; // The rows of the feature weights having a gradient in the batch
+    private final int[] touchedFeatureList = new int[NeuralNetwork.featuresCount];
+    private int touchedFeaturesCount;
+    private final boolean[] touchedFactors = new boolean[NeuralNetwork.featuresPerKing];
+    private int step;
+
+    // Generated positions : the piece id of each square, the player to move, and the evaluation for this player divided by the output scale
+    private byte[][] positions;
+    private boolean[] whiteToPlay;
+    private float[] targets;
+    private int positionsCount;
+
+    // Activations and gradients of one position
+    private final int[][] features = new int[2][32]; // [player][index], from the point of view of each player
+    private final int[] featuresCounts = new int[2];
+    private int currentPlayer; // The accumulator index of the player to move
+    private final float[][] accumulators; // [player][hidden]
+    private final float[] input;
+    private final float[] firstOutput;
+    private final float[] secondOutput;
+    private final float[] inputGradients;
+    private final float[] firstGradients;
+    private final float[] secondGradients;
+
+    public NeuralNetworkTrainer(int hiddenSize, int firstSize, int secondSize, long seed){
+        this.hiddenSize = hiddenSize;
+        this.firstSize = firstSize;
+        this.secondSize = secondSize;
+        this.random = new Random(seed);
+
+        featureWeights = new Parameters(NeuralNetwork.featuresCount * hiddenSize);
+        factorWeights = new Parameters(NeuralNetwork.featuresPerKing * hiddenSize);
+        featureBiases = new Parameters(hiddenSize);
+        firstWeights = new Parameters(firstSize * 2 * hiddenSize);
+        firstBiases = new Parameters(firstSize);
+        secondWeights = new Parameters(secondSize * firstSize);
+        secondBiases = new Parameters(secondSize);
+        outputWeights = new Parameters(secondSize);
+        outputBias = new Parameters(1);
+
+        // The accumulators start around the middle of the clipped range, so all the hidden neurons learn
+        factorWeights.randomize(random, 0.05f);
+        Arrays.fill(featureBiases.values, 0.5f);
+        firstWeights.randomize(random, (float) Math.sqrt(6.0 / (2 * hiddenSize + firstSize)));
+        Arrays.fill(firstBiases.values, 0.1f);
+        secondWeights.randomize(random, (float) Math.sqrt(6.0 / (firstSize + secondSize)));
+        Arrays.fill(secondBiases.values, 0.1f);
+        outputWeights.randomize(random, (float) Math.sqrt(6.0 / (secondSize + 1)));
+
+        accumulators = new float[2][hiddenSize];
+        input = new float[2 * hiddenSize];
+        firstOutput = new float[firstSize];
+        secondOutput = new float[secondSize];
+        inputGradients = new float[2 * hiddenSize];
+        firstGradients = new float[firstSize];
+        secondGradients = new float[secondSize];
+    }
+
+    /**
+     * "file [positions] [epochs]" trains a neural network to reproduce the handcrafted evaluation on positions of games
+     * played from the bench positions, and saves it. Run by the trainNetwork task, for example :
+     * gradle trainNetwork --args="network.nn 500000 10"
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0){
+            System.out.println("Usage : file [positions] [epochs]");
+            return;
+        }
+        Path file = Path.of(args[0]);
+        int positions = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+        int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        NeuralNetworkTrainer trainer = new NeuralNetworkTrainer(64, 16, 16, 1);
+        trainer.generatePositions(List.of(ChessMain.benchFens), positions, AlphaBetaBot::evaluatePosition);
+        trainer.train(epochs);
+        trainer.toNeuralNetwork().save(file);
+        System.out.println("Network saved in " + file);
+    }
+
+    /**
+     * Plays games from the openings until the given number of quiet positions is collected
+     * @param evaluation The evaluation to learn, giving the score of white in centipawns
+     */
+    public void generatePositions(List<String> openings, int count, ToIntFunction<IntegerChessBoard> evaluation){
+        positions = new byte[count][];
+        whiteToPlay = new boolean[count];
+        targets = new float[count];
+        positionsCount = 0;
+
+        int[] moves = new int[IntegerChessBoard.MAX_MOVES];
+        int games = 0;
+        while(positionsCount < count){
+            IntegerChessBoard board = new IntegerChessBoard(openings.get(games++ % openings.size()));
+            for(int ply = 0; ply < maxGamePlies && positionsCount < count; ply++){
+                int movesCount = board.fillAllowedMoves(moves);
+                if(movesCount == 0) break;
+                boolean inCheck = board.isKingInCheck();
+
+                // The preferred move is the one leading to the best evaluation
+                int sign = board.isWhiteToPlay() ? 1 : -1;
+                int bestMove = moves[0];
+                int bestEval = Integer.MIN_VALUE;
+                for(int i = 0; i < movesCount; i++){
+                    board.playMove(moves[i]);
+                    int eval = sign * evaluation.applyAsInt(board);
+                    board.undoMove(moves[i]);
+                    if(eval > bestEval){
+                        bestEval = eval;
+                        bestMove = moves[i];
+                    }
+                }
+
+                if(ply >= randomOpeningPlies && !inCheck){
+                    addPosition(board, sign * evaluation.applyAsInt(board));
+                }
+
+                boolean randomMove = ply < randomOpeningPlies || random.nextDouble() < randomMoveRate;
+                board.playMove(randomMove ? moves[random.nextInt(movesCount)] : bestMove);
+            }
+        }
+        System.out.println(ChessMain.longFormat.format(positionsCount) + " positions generated from " + games + " games");
+    }
+
+    private void addPosition(IntegerChessBoard board, int eval){
+        byte[] pieces = new byte[64];
+        for(int position = 0; position < 64; position++){
+            ChessPiece piece = board.getPiece(position);
+            pieces[position] = (byte) (piece == null ? 0 : piece.getId());
+        }
+        positions[positionsCount] = pieces;
+        whiteToPlay[positionsCount] = board.isWhiteToPlay();
+        targets[positionsCount] = Math.max(-maxTarget, Math.min(maxTarget, (float) eval / NeuralNetwork.outputScale));
+        positionsCount++;
+    }
+
+    /**
+     * Trains the network on the generated positions, keeping a few of them to measure the error on unseen positions
+     */
+    public void train(int epochs){
+        int[] order = new int[positionsCount];
+        for(int i = 0; i < positionsCount; i++){
+            order[i] = i;
+        }
+        shuffle(order);
+        int validationCount = (int) (positionsCount * validationRate);
+
+        for(int epoch = 1; epoch <= epochs; epoch++){
+            long start = System.currentTimeMillis();
+            int[] trainingOrder = Arrays.copyOfRange(order, validationCount, positionsCount);
+            shuffle(trainingOrder);
+
+            double trainingError = 0;
+            for(int i = 0; i < trainingOrder.length; i++){
+                int index = trainingOrder[i];
+                float error = forward(index) - targets[index];
+                trainingError += error * error;
+                backward(error * 2 / batchSize);
+                if((i + 1) % batchSize == 0 || i == trainingOrder.length - 1){
+                    update();
+                }
+            }
+
+            double validationError = 0;
+            for(int i = 0; i < validationCount; i++){
+                float error = forward(order[i]) - targets[order[i]];
+                validationError += error * error;
+            }
+
+            System.out.println("Epoch " + epoch + "/" + epochs + " : training error " + Math.round(Math.sqrt(trainingError / trainingOrder.length) * NeuralNetwork.outputScale)
+                    + " cp, validation error " + Math.round(Math.sqrt(validationError / Math.max(1, validationCount)) * NeuralNetwork.outputScale)
+                    + " cp (" + (System.currentTimeMillis() - start) + "ms)");
+        }
+    }
+
+    private void shuffle(int[] array){
+        for(int i = array.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int value = array[i];
+            array[i] = array[j];
+            array[j] = value;
+        }
+    }
+
+    /**
+     * @return The output of the network for the player to move of this position
+     */
+    private float forward(int index){
+        byte[] pieces = positions[index];
+        int whiteKing = 0;
+        int blackKing = 0;
+        for(int position = 0; position < 64; position++){
+            if(pieces[position] == 6) whiteKing = position;
+            if(pieces[position] == -6) blackKing = position;
+        }
+
+        featuresCounts[0] = 0;
+        featuresCounts[1] = 0;
+        for(int position = 0; position < 64; position++){
+            int pieceId = pieces[position];
+            if(pieceId == 0 || pieceId == 6 || pieceId == -6) continue;
+            features[0][featuresCounts[0]++] = NeuralNetwork.getFeatureIndex(true, whiteKing, pieceId, position);
+            features[1][featuresCounts[1]++] = NeuralNetwork.getFeatureIndex(false, blackKing, pieceId, position);
+        }
+
+        for(int player = 0; player < 2; player++){
+            float[] accumulator = accumulators[player];
+            System.arraycopy(featureBiases.values, 0, accumulator, 0, hiddenSize);
+            for(int i = 0; i < featuresCounts[player]; i++){
+                int feature = features[player][i];
+                int weightsOffset = feature * hiddenSize;
+                int factorOffset = (feature % NeuralNetwork.featuresPerKing) * hiddenSize;
+                for(int h = 0; h < hiddenSize; h++){
+                    accumulator[h] += featureWeights.values[weightsOffset + h] + factorWeights.values[factorOffset + h];
+                }
+            }
+        }
+
+        // The accumulator of the player to move comes first, like in NeuralNetwork
+        int player = whiteToPlay[index] ? 0 : 1;
+        for(int h = 0; h < hiddenSize; h++){
+            input[h] = clip(accumulators[player][h]);
+            input[hiddenSize + h] = clip(accumulators[1 - player][h]);
+        }
+        currentPlayer = player;
+
+        denseForward(input, 2 * hiddenSize, firstWeights.values, firstBiases.values, firstOutput, firstSize);
+        denseForward(firstOutput, firstSize, secondWeights.values, secondBiases.values, secondOutput, secondSize);
+
+        float output = outputBias.values[0];
+        for(int i = 0; i < secondSize; i++){
+            output += secondOutput[i] * outputWeights.values[i];
+        }
+        return output;
+    }
+
+    private static void denseForward(float[] input, int inputSize, float[] weights, float[] biases, float[] output, int outputSize){
+        for(int i = 0; i < outputSize; i++){
+            float sum = biases[i];
+            int offset = i * inputSize;
+            for(int j = 0; j < inputSize; j++){
+                sum += input[j] * weights[offset + j];
+            }
+            // The output is clipped, so 0 and 1 are kept to know that the gradient does not flow
+            output[i] = clip(sum);
+        }
+    }
+
+    private static float clip(float value){
+        return Math.max(0f, Math.min(1f, value));
+    }
+
+    private static boolean isActive(float clippedValue){
+        return clippedValue > 0f && clippedValue < 1f;
+    }
+
+    /**
+     * Adds the gradients of the last position given to forward
+     * @param outputGradient The derivative of the loss by the output
+     */
+    private void backward(float outputGradient){
+        outputBias.gradients[0] += outputGradient;
+        for(int i = 0; i < secondSize; i++){
+            outputWeights.gradients[i] += outputGradient * secondOutput[i];
+            secondGradients[i] = isActive(secondOutput[i]) ? outputGradient * outputWeights.values[i] : 0f;
+        }
+
+        denseBackward(firstOutput, firstSize, secondWeights, secondBiases, secondGradients, secondSize, firstGradients);
+        for(int i = 0; i < firstSize; i++){
+            if(!isActive(firstOutput[i])) firstGradients[i] = 0f;
+        }
+        denseBackward(input, 2 * hiddenSize, firstWeights, firstBiases, firstGradients, firstSize, inputGradients);
+
+        for(int side = 0; side < 2; side++){
+            int player = side == 0 ? currentPlayer : 1 - currentPlayer;
+            int inputOffset = side * hiddenSize;
+            boolean anyGradient = false;
+            for(int h = 0; h < hiddenSize; h++){
+                if(!isActive(input[inputOffset + h])){
+                    inputGradients[inputOffset + h] = 0f;
+                } else {
+                    anyGradient = true;
+                    featureBiases.gradients[h] += inputGradients[inputOffset + h];
+                }
+            }
+            if(!anyGradient) continue;
+
+            for(int i = 0; i < featuresCounts[player]; i++){
+                int feature = features[player][i];
+                int factor = feature % NeuralNetwork.featuresPerKing;
+                if(!touchedFeatures[feature]){
+                    touchedFeatures[feature] = true;
+                    touchedFeatureList[touchedFeaturesCount++] = feature;
+                }
+                touchedFactors[factor] = true;
+                int weightsOffset = feature * hiddenSize;
+                int factorOffset = factor * hiddenSize;
+                for(int h = 0; h < hiddenSize; h++){
+                    float gradient = inputGradients[inputOffset + h];
+                    featureWeights.gradients[weightsOffset + h] += gradient;
+                    factorWeights.gradients[factorOffset + h] += gradient;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the gradients of the weights and biases of a dense layer, and computes the gradients of its input
+     */
+    private static void denseBackward(float[] input, int inputSize, Parameters weights, Parameters biases, float[] outputGradients, int outputSize, float[] inputGradients){
+        Arrays.fill(inputGradients, 0, inputSize, 0f);
+        for(int i = 0; i < outputSize; i++){
+            float gradient = outputGradients[i];
+            if(gradient == 0f) continue;
+            biases.gradients[i] += gradient;
+            int offset = i * inputSize;
+            for(int j = 0; j < inputSize; j++){
+                weights.gradients[offset + j] += gradient * input[j];
+                inputGradients[j] += gradient * weights.values[offset + j];
+            }
+        }
+    }
+
+    /**
+     * Applies the gradients of the batch, only on the rows of the feature weights used by the batch
+     */
+    private void update(){
+        step++;
+        float correction1 = 1 - (float) Math.pow(beta1, step);
+        float correction2 = 1 - (float) Math.pow(beta2, step);
+
+        for(int i = 0; i < touchedFeaturesCount; i++){
+            int feature = touchedFeatureList[i];
+            featureWeights.update(feature * hiddenSize, hiddenSize, correction1, correction2, Float.MAX_VALUE);
+            touchedFeatures[feature] = false;
+        }
+        touchedFeaturesCount = 0;
+        for(int factor = 0; factor < NeuralNetwork.featuresPerKing; factor++){
+            if(touchedFactors[factor]){
+                factorWeights.update(factor * hiddenSize, hiddenSize, correction1, correction2, Float.MAX_VALUE);
+                touchedFactors[factor] = false;
+            }
+        }
+
+        featureBiases.update(0, hiddenSize, correction1, correction2, Float.MAX_VALUE);
+        firstWeights.update(0, firstWeights.values.length, correction1, correction2, maxDenseWeight);
+        firstBiases.update(0, firstSize, correction1, correction2, Float.MAX_VALUE);
+        secondWeights.update(0, secondWeights.values.length, correction1, correction2, maxDenseWeight);
+        secondBiases.update(0, secondSize, correction1, correction2, Float.MAX_VALUE);
+        outputWeights.update(0, secondSize, correction1, correction2, maxDenseWeight);
+        outputBias.update(0, 1, correction1, correction2, Float.MAX_VALUE);
+    }
+
+    /**
+     * @return The quantized network, see {@link NeuralNetwork} for the scales
+     */
+    public NeuralNetwork toNeuralNetwork(){
+        int featureScale = NeuralNetwork.activationScale;
+        int weightScale = 1 << NeuralNetwork.weightShift;
+        int biasScale = featureScale * weightScale;
+
+        short[] quantizedFeatureBiases = new short[hiddenSize];
+        for(int h = 0; h < hiddenSize; h++){
+            quantizedFeatureBiases[h] = (short) clamp(Math.round(featureBiases.values[h] * featureScale), Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+        short[] quantizedFeatureWeights = new short[NeuralNetwork.featuresCount * hiddenSize];
+        for(int feature = 0; feature < NeuralNetwork.featuresCount; feature++){
+            int factorOffset = (feature % NeuralNetwork.featuresPerKing) * hiddenSize;
+            for(int h = 0; h < hiddenSize; h++){
+                float weight = featureWeights.values[feature * hiddenSize + h] + factorWeights.values[factorOffset + h];
+                quantizedFeatureWeights[feature * hiddenSize + h] = (short) clamp(Math.round(weight * featureScale), Short.MIN_VALUE, Short.MAX_VALUE);
+            }
+        }
+
+        return new NeuralNetwork(hiddenSize, firstSize, secondSize, quantizedFeatureBiases, quantizedFeatureWeights,
+                quantize(firstWeights.values, weightScale, Byte.MIN_VALUE, Byte.MAX_VALUE), quantize(firstBiases.values, biasScale, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                quantize(secondWeights.values, weightScale, Byte.MIN_VALUE, Byte.MAX_VALUE), quantize(secondBiases.values, biasScale, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                quantize(outputWeights.values, weightScale, Byte.MIN_VALUE, Byte.MAX_VALUE), Math.round(outputBias.values[0] * biasScale));
+    }
+
+    private static int[] quantize(float[] values, int scale, int min, int max){
+        int[] quantized = new int[values.length];
+        for(int i = 0; i < values.length; i++){
+            quantized[i] = (int) clamp(Math.round((double) values[i] * scale), min, max);
+        }
+        return quantized;
+    }
+
+    private static long clamp(long value, long min, long max){
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Values of a layer, with their gradients and their Adam moments
+     */
+    private static class Parameters {
+
+        private final float[] values;
+        private final float[] gradients;
+        private final float[] firstMoments;
+        private final float[] secondMoments;
+
+        private Parameters(int size){
+            this.values = new float[size];
+            this.gradients = new float[size];
+            this.firstMoments = new float[size];
+            this.secondMoments = new float[size];
+        }
+
+        private void randomize(Random random, float range){
+            for(int i = 0; i < values.length; i++){
+                values[i] = (random.nextFloat() * 2 - 1) * range;
+            }
+        }
+
+        /**
+         * Applies and clears the gradients of a range of values
+         * @param maxValue The values are clamped between -maxValue and maxValue
+         */
+        private void update(int offset, int length, float correction1, float correction2, float maxValue){
+            for(int i = offset; i < offset + length; i++){
+                float gradient = gradients[i];
+                firstMoments[i] = beta1 * firstMoments[i] + (1 - beta1) * gradient;
+                secondMoments[i] = beta2 * secondMoments[i] + (1 - beta2) * gradient * gradient;
+                float step = learningRate * (firstMoments[i] / correction1) / ((float) Math.sqrt(secondMoments[i] / correction2) + epsilon);
+                values[i] = Math.max(-maxValue, Math.min(maxValue, values[i] - step));
+                gradients[i] = 0f;
+            }
+        }
+    }
+}
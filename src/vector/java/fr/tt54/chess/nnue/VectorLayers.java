@@ -0,0 +1,51 @@
+package fr.tt54.chess.nnue;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of the network written with the vector API : the clipping of the accumulators and the dot products of the
+ * dense layers. This is the only class using the incubator module, so it is only loaded when the module is present, see
+ * {@link NeuralNetwork#isVectorApiAvailable()}
+ */
+class VectorLayers {
+
+    private static final VectorSpecies<Integer> species = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> shortSpecies = ShortVector.SPECIES_PREFERRED;
+
+    /**
+     * Writes the accumulator values clipped between 0 and maxValue in the input of the first dense layer
+     */
+    static void clip(short[] accumulator, int[] output, int outputOffset, int maxValue){
+        int length = accumulator.length;
+        int i = 0;
+        for(int bound = shortSpecies.loopBound(length); i < bound; i += shortSpecies.length()){
+            ShortVector values = ShortVector.fromArray(shortSpecies, accumulator, i).max((short) 0).min((short) maxValue);
+            // A short vector holds twice as many lanes as an int vector of the same size
+            for(int part = 0; part < 2; part++){
+                IntVector ints = (IntVector) values.convertShape(VectorOperators.S2I, species, part);
+                ints.intoArray(output, outputOffset + i + part * species.length());
+            }
+        }
+        for(; i < length; i++){
+            output[outputOffset + i] = Math.min(Math.max(accumulator[i], 0), maxValue);
+        }
+    }
+
+    static int dot(int[] input, int[] weights, int weightsOffset, int length){
+        IntVector sums = IntVector.zero(species);
+        int i = 0;
+        for(int bound = species.loopBound(length); i < bound; i += species.length()){
+            IntVector inputs = IntVector.fromArray(species, input, i);
+            sums = inputs.mul(IntVector.fromArray(species, weights, weightsOffset + i)).add(sums);
+        }
+
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; i < length; i++){
+            sum += input[i] * weights[weightsOffset + i];
+        }
+        return sum;
+    }
+}